@@ -0,0 +1,697 @@
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A unit of bus work executed on the I/O thread of an {@link AsyncMaster}.
+ */
+@FunctionalInterface
+interface BusCall<T> {
+    T call(Master master) throws Exception;
+}
+
+/**
+ * Priority classes of bus traffic, highest first.
+ */
+enum Lane {
+    MOTION, TELEMETRY, BACKGROUND
+}
+
+/**
+ * Queueing delay statistics of one {@link Lane}.
+ */
+final class LaneStats {
+    private long __count = 0;
+    private long __totalNanos = 0;
+    private long __maxNanos = 0;
+
+    synchronized void record(long nanos) {
+        __count++;
+        __totalNanos += nanos;
+        __maxNanos = Math.max(__maxNanos, nanos);
+    }
+
+    public synchronized void reset() {
+        __count = 0;
+        __totalNanos = 0;
+        __maxNanos = 0;
+    }
+
+    public synchronized long count() {
+        return __count;
+    }
+
+    public synchronized long meanNanos() {
+        return __count == 0 ? 0 : __totalNanos / __count;
+    }
+
+    public synchronized long maxNanos() {
+        return __maxNanos;
+    }
+}
+
+final class BusRequest<T> {
+    final BusCall<T> call;
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    final long readyAt;
+
+    BusRequest(BusCall<T> call) {
+        this(call, System.nanoTime());
+    }
+
+    /**
+     * A request that the I/O thread holds back until {@code readyAt}, serving others meanwhile.
+     */
+    BusRequest(BusCall<T> call, long readyAt) {
+        this.call = call;
+        this.readyAt = readyAt;
+    }
+
+    void run(Master master) {
+        if (future.isDone()) {
+            return;
+        }
+        try {
+            future.complete(call.call(master));
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        }
+    }
+}
+
+/**
+ * Pending reads of one driver that will be served by a single READ frame.
+ */
+final class ReadBatch {
+    final int id;
+    final long createdAt = System.nanoTime();
+    final int[] indexes = new int[Registers.count()];
+    int count = 0;
+    private final boolean[] __wanted = new boolean[Registers.count()];
+    private int __replySize = Frame.HEADER_SIZE + Frame.CRC_SIZE;
+    private final List<Waiter<?>> __waiters = new ArrayList<>();
+
+    private static final class Waiter<T> {
+        final Function<Red, T> extractor;
+        final CompletableFuture<T> future;
+
+        Waiter(Function<Red, T> extractor, CompletableFuture<T> future) {
+            this.extractor = extractor;
+            this.future = future;
+        }
+
+        void complete(Red driver) {
+            try {
+                future.complete(extractor.apply(driver));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    ReadBatch(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Returns whether the reply still fits in one frame with {@code indexList} added.
+     */
+    boolean fits(int[] indexList) {
+        int replySize = __replySize;
+        for (int index : indexList) {
+            if (!__wanted[index]) {
+                replySize += 1 + Registers.size(index);
+            }
+        }
+        return replySize <= Frame.MAX_SIZE;
+    }
+
+    <T> void add(int[] indexList, Function<Red, T> extractor, CompletableFuture<T> future) {
+        for (int index : indexList) {
+            if (!__wanted[index]) {
+                __wanted[index] = true;
+                indexes[count++] = index;
+                __replySize += 1 + Registers.size(index);
+            }
+        }
+        __waiters.add(new Waiter<>(extractor, future));
+    }
+
+    int waiters() {
+        return __waiters.size();
+    }
+
+    void complete(Red driver) {
+        for (Waiter<?> waiter : __waiters) {
+            waiter.complete(driver);
+        }
+    }
+
+    void fail(Throwable e) {
+        for (Waiter<?> waiter : __waiters) {
+            waiter.future.completeExceptionally(e);
+        }
+    }
+}
+
+/**
+ * Unsent setpoints of one driver, keyed by register. A newer value for a register
+ * replaces the queued one, so only the freshest command goes out.
+ */
+final class SetpointBatch {
+    final int id;
+    final int[] indexes = new int[Registers.count()];
+    final double[] values = new double[Registers.count()];
+    int count = 0;
+    final CompletableFuture<Void> sent = new CompletableFuture<>();
+    private final int[] __slot = new int[Registers.count()];
+
+    SetpointBatch(int id) {
+        this.id = id;
+        Arrays.fill(__slot, -1);
+    }
+
+    /**
+     * Queues {@code value} for {@code index}.
+     *
+     * @return true if it superseded an unsent value
+     */
+    boolean put(int index, double value) {
+        if (__slot[index] >= 0) {
+            values[__slot[index]] = value;
+            return true;
+        }
+        __slot[index] = count;
+        indexes[count] = index;
+        values[count] = value;
+        count++;
+        return false;
+    }
+}
+
+/**
+ * Thread-safe front end for a bus.
+ * <p>
+ * The {@link Master} and its serial port are owned by a single I/O thread. Callers
+ * on any thread (including virtual threads) submit requests through a bounded queue
+ * and get a {@link CompletableFuture} back, so frames of concurrent callers are never
+ * interleaved and the drivers' register files are only touched by the I/O thread.
+ * <p>
+ * Every request travels in a {@link Lane}. The I/O thread always drains the highest
+ * priority lane first, so a setpoint or torque disable from the motion lane waits at
+ * most for the transaction already on the wire, however much telemetry is queued.
+ * <p>
+ * Reads of the same driver that are queued at the same time are merged into one
+ * multi-index READ frame and the decoded values are fanned out to every caller.
+ * Setpoints go through a mailbox per driver and register: a value that has not been
+ * sent yet is replaced by a newer one, so a saturated bus never carries stale commands.
+ * <p>
+ * Futures complete on the I/O thread; use the {@code *Async} stages of
+ * {@link CompletableFuture} for anything slower than copying the result.
+ */
+class AsyncMaster implements AutoCloseable {
+    private static final int __QUEUE_CAPACITY = 1024;
+    private static final long __POLL_MILLIS = 100;
+    private static final long __ARRIVAL_POLL_NANOS = 10_000_000L;
+    private static final int[] __POSITION = {Index.PresentPosition.ordinal()};
+
+    private final Master __master;
+    private final List<BlockingQueue<BusRequest<?>>> __lanes = new ArrayList<>();
+    private final List<PriorityQueue<BusRequest<?>>> __held = new ArrayList<>();
+    private final LaneStats[] __laneStats = new LaneStats[Lane.values().length];
+    private final Semaphore __pending = new Semaphore(0);
+    private final Map<Integer, ReadBatch> __reads = new HashMap<>();
+    private final AtomicLong __coalescedReads = new AtomicLong();
+    private volatile long __coalesceNanos = 0;
+    private final Map<Integer, SetpointBatch> __setpoints = new HashMap<>();
+    private final AtomicLong __supersededSetpoints = new AtomicLong();
+    private final Thread __io;
+    private volatile boolean __running = true;
+
+    public AsyncMaster(String portname, int baudrate) throws Exception {
+        this(new Master(portname, baudrate), portname);
+    }
+
+    public AsyncMaster(BusTransport transport, int baudrate) {
+        this(new Master(transport, baudrate), transport.name());
+    }
+
+    private AsyncMaster(Master master, String name) {
+        __master = master;
+        for (int i = 0; i < Lane.values().length; i++) {
+            __lanes.add(new ArrayBlockingQueue<>(__QUEUE_CAPACITY));
+            __held.add(new PriorityQueue<>(Comparator.<BusRequest<?>>comparingLong(request -> request.readyAt)));
+            __laneStats[i] = new LaneStats();
+        }
+        __io = new Thread(this::__run, "smd-bus-" + name);
+        __io.setDaemon(true);
+        __io.start();
+    }
+
+    /**
+     * Queues {@code call} for the I/O thread in the background lane.
+     */
+    public <T> CompletableFuture<T> submit(BusCall<T> call) {
+        return submit(Lane.BACKGROUND, call);
+    }
+
+    /**
+     * Queues {@code call} for the I/O thread in {@code lane}.
+     *
+     * @return a future of the call's result, failed with a {@link RejectedExecutionException}
+     * if the lane is full or the master is closed
+     */
+    public <T> CompletableFuture<T> submit(Lane lane, BusCall<T> call) {
+        BusRequest<T> request = new BusRequest<>(call);
+        RejectedExecutionException rejected = __enqueue(lane, request);
+        if (rejected != null) {
+            request.future.completeExceptionally(rejected);
+        }
+        return request.future;
+    }
+
+    /**
+     * Queues {@code request} unless the lane is full or the master is closed. Runs under
+     * the lanes' lock, so no request gets in after {@link #close()} has stopped intake.
+     *
+     * @return null if queued, the reason otherwise
+     */
+    private RejectedExecutionException __enqueue(Lane lane, BusRequest<?> request) {
+        synchronized (__lanes) {
+            if (!__running) {
+                return new RejectedExecutionException("AsyncMaster is closed!");
+            }
+            if (!__lanes.get(lane.ordinal()).offer(request)) {
+                return new RejectedExecutionException(lane + " lane is full!");
+            }
+            __pending.release();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the queueing delay statistics of {@code lane}, from enqueue (or the end of a
+     * coalesce window) to the start of its transaction.
+     */
+    public LaneStats laneStats(Lane lane) {
+        return __laneStats[lane.ordinal()];
+    }
+
+    public int queued(Lane lane) {
+        return __lanes.get(lane.ordinal()).size();
+    }
+
+    /**
+     * Holds a read batch for at least {@code nanos} after its first request, so that
+     * reads arriving within that window share its frame. The I/O thread serves other
+     * requests meanwhile. Zero (the default) only merges reads that queue up behind
+     * other traffic.
+     */
+    public void setCoalesceWindow(long nanos) {
+        __coalesceNanos = nanos;
+    }
+
+    /**
+     * Returns the number of reads that were served by another caller's frame.
+     */
+    public long coalescedReads() {
+        return __coalescedReads.get();
+    }
+
+    /**
+     * Joins the pending read batch of {@code id}, or queues a new one.
+     */
+    private <T> CompletableFuture<T> __read(int id, int[] indexList, Function<Red, T> extractor) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        synchronized (__reads) {
+            ReadBatch batch = __reads.get(id);
+            if (batch != null && batch.fits(indexList)) {
+                __coalescedReads.incrementAndGet();
+            } else {
+                ReadBatch created = new ReadBatch(id);
+                BusRequest<Void> flush = new BusRequest<>(master -> __flush(master, created), created.createdAt + __coalesceNanos);
+                RejectedExecutionException rejected = __enqueue(Lane.TELEMETRY, flush);
+                if (rejected != null) {
+                    future.completeExceptionally(rejected);
+                    return future;
+                }
+                __reads.put(id, created);
+                batch = created;
+            }
+            batch.add(indexList, extractor, future);
+        }
+        return future;
+    }
+
+    private Void __flush(Master master, ReadBatch batch) throws Exception {
+        synchronized (__reads) {
+            __reads.remove(batch.id, batch);
+        }
+
+        try {
+            if (!master.getVariables(batch.id, batch.indexes, batch.count)) {
+                batch.fail(new Exception(batch.id + " did not respond!"));
+                return null;
+            }
+            batch.complete(master.driver(batch.id));
+        } catch (Throwable e) {
+            batch.fail(e);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of setpoints replaced by a newer value before they were sent.
+     */
+    public long supersededSetpoints() {
+        return __supersededSetpoints.get();
+    }
+
+    /**
+     * Queues {@code value} for {@code index} of {@code id}, replacing an unsent older value.
+     *
+     * @return a future that completes once the frame carrying the freshest value is written
+     */
+    public CompletableFuture<Void> setpoint(int id, Index index, float value) {
+        return __setpoint(id, new int[]{index.ordinal()}, new double[]{value});
+    }
+
+    public CompletableFuture<Void> setpoint(int id, Index index, int value) {
+        return __setpoint(id, new int[]{index.ordinal()}, new double[]{value});
+    }
+
+    private CompletableFuture<Void> __setpoint(int id, int[] indexList, double[] valueList) {
+        synchronized (__setpoints) {
+            SetpointBatch batch = __setpoints.get(id);
+            if (batch == null) {
+                SetpointBatch created = new SetpointBatch(id);
+                RejectedExecutionException rejected = __enqueue(Lane.MOTION, new BusRequest<>(master -> __send(master, created)));
+                if (rejected != null) {
+                    return CompletableFuture.failedFuture(rejected);
+                }
+                __setpoints.put(id, created);
+                batch = created;
+            }
+            for (int i = 0; i < indexList.length; i++) {
+                if (batch.put(indexList[i], valueList[i])) {
+                    __supersededSetpoints.incrementAndGet();
+                }
+            }
+            return batch.sent.copy();
+        }
+    }
+
+    private Void __send(Master master, SetpointBatch batch) {
+        synchronized (__setpoints) {
+            __setpoints.remove(batch.id, batch);
+        }
+
+        try {
+            master.setVariables(batch.id, batch.indexes, batch.values, batch.count, false);
+            batch.sent.complete(null);
+        } catch (Throwable e) {
+            batch.sent.completeExceptionally(e);
+        }
+        return null;
+    }
+
+    public CompletableFuture<Void> attach(Red driver) {
+        return submit(master -> {
+            master.attach(driver);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> detach(int id) {
+        return submit(master -> {
+            master.detach(id);
+            return null;
+        });
+    }
+
+    public CompletableFuture<List<Object>> getVariables(int id, List<Integer> indexList) {
+        int[] indexes = indexList.stream().mapToInt(Integer::intValue).toArray();
+        return __read(id, indexes, driver -> {
+            List<Object> readValues = new ArrayList<>();
+            for (int index : indexes) {
+                readValues.add(driver.value(index));
+            }
+            return readValues;
+        });
+    }
+
+    public CompletableFuture<List<Object>> setVariables(int id, List<Object[]> idxValPairs, boolean ack) {
+        return submit(Lane.MOTION, master -> master.setVariables(id, idxValPairs, ack));
+    }
+
+    public CompletableFuture<Boolean> ping(int id) {
+        return submit(master -> master.ping(id));
+    }
+
+    public CompletableFuture<Void> reboot(int id) {
+        return submit(master -> {
+            master.reboot(id);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> eepromWrite(int id, boolean ack) {
+        return submit(master -> {
+            master.eepromWrite(id, ack);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> enableTorque(int id, boolean en) {
+        return submit(Lane.MOTION, master -> {
+            master.enableTorque(id, en);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> setPosition(int id, int sp) {
+        return __setpoint(id, new int[]{Index.PositionControlMode.ordinal(), Index.SetPosition.ordinal()}, new double[]{0, sp});
+    }
+
+    public CompletableFuture<Integer> getPosition(int id) {
+        return __read(id, new int[]{Index.PresentPosition.ordinal()}, driver -> (int) driver.getFloat(Index.PresentPosition));
+    }
+
+    /**
+     * Completes from the last reply that carried the position if it is at most {@code maxAge}
+     * old; only a stale value costs a bus transaction.
+     */
+    public CompletableFuture<Integer> getPosition(int id, Duration maxAge) {
+        return submit(Lane.TELEMETRY, master -> master.getPosition(id, maxAge));
+    }
+
+    /**
+     * Sends an S-curve move on the MOTION lane. The future completes with the position
+     * once the axis is within {@code encoderTickCloseCounter} ticks of the target, polled
+     * on the TELEMETRY lane every 10 ms.
+     */
+    public CompletableFuture<Integer> goTo(int id, int targetPosition, float time, float maxSpeed, float accel, int encoderTickCloseCounter) {
+        return submit(Lane.MOTION, master -> {
+            master.startGoTo(id, targetPosition, time, maxSpeed, accel);
+            return null;
+        }).thenCompose(sent -> __arrival(id, targetPosition, encoderTickCloseCounter));
+    }
+
+    /**
+     * Sends a coordinated move on the MOTION lane; see {@link Master#goToAll}.
+     */
+    public CompletableFuture<Void> goToAll(Map<Integer, Move> moves) {
+        return submit(Lane.MOTION, master -> {
+            master.startGoToAll(moves);
+            return null;
+        }).thenCompose(sent -> {
+            CompletableFuture<?>[] arrivals = new CompletableFuture<?>[moves.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Move> entry : moves.entrySet()) {
+                arrivals[i++] = __arrival(entry.getKey(), entry.getValue().target, entry.getValue().tolerance);
+            }
+            return CompletableFuture.allOf(arrivals);
+        });
+    }
+
+    public CompletableFuture<Integer> goToConstantSpeed(int id, int targetPosition, float speed, int encoderTickCloseCounter) {
+        return submit(Lane.MOTION, master -> {
+            master.startGoToConstantSpeed(id, targetPosition, speed);
+            return null;
+        }).thenCompose(sent -> __arrival(id, targetPosition, encoderTickCloseCounter));
+    }
+
+    /**
+     * Returns a future completed with the position of {@code id} once it is within
+     * {@code tolerance} ticks of {@code target}. Cancelling the future ends the polling.
+     */
+    private CompletableFuture<Integer> __arrival(int id, int target, int tolerance) {
+        CompletableFuture<Integer> arrived = new CompletableFuture<>();
+        __pollArrival(id, target, tolerance, arrived);
+        return arrived;
+    }
+
+    /**
+     * Queues one PresentPosition read, due a poll period from now, that completes
+     * {@code arrived} or queues the next one. A poll without a reply keeps the wait open,
+     * as in {@link PositionPoller}.
+     */
+    private void __pollArrival(int id, int target, int tolerance, CompletableFuture<Integer> arrived) {
+        BusRequest<Void> poll = new BusRequest<>(master -> {
+            if (arrived.isDone()) {
+                return null;
+            }
+            try {
+                if (master.getVariables(id, __POSITION, 1)) {
+                    int position = (int) master.driver(id).getFloat(Index.PresentPosition);
+                    if (Math.abs(target - position) <= tolerance) {
+                        arrived.complete(position);
+                        return null;
+                    }
+                }
+            } catch (Exception e) {
+                arrived.completeExceptionally(e);
+                return null;
+            }
+            __pollArrival(id, target, tolerance, arrived);
+            return null;
+        }, System.nanoTime() + __ARRIVAL_POLL_NANOS);
+        RejectedExecutionException rejected = __enqueue(Lane.TELEMETRY, poll);
+        if (rejected != null) {
+            arrived.completeExceptionally(rejected);
+        }
+    }
+
+    public CompletableFuture<Void> setVelocity(int id, float sp, float accel) {
+        if (accel == 0) {
+            return __setpoint(id, new int[]{Index.SetVelocity.ordinal()}, new double[]{sp});
+        }
+        if (accel == MotorConstants.MAX_ACCEL) {
+            accel = 0;
+        }
+        return __setpoint(id, new int[]{Index.SetVelocityAcceleration.ordinal(), Index.SetVelocity.ordinal()}, new double[]{accel, sp});
+    }
+
+    public CompletableFuture<Float> getVelocity(int id) {
+        return __read(id, new int[]{Index.PresentVelocity.ordinal()}, driver -> driver.getFloat(Index.PresentVelocity));
+    }
+
+    public CompletableFuture<Float> getTorque(int id) {
+        return __read(id, new int[]{Index.MotorCurrent.ordinal()}, driver -> driver.getFloat(Index.MotorCurrent));
+    }
+
+    public CompletableFuture<Float> getVelocity(int id, Duration maxAge) {
+        return submit(Lane.TELEMETRY, master -> master.getVelocity(id, maxAge));
+    }
+
+    public CompletableFuture<Float> getTorque(int id, Duration maxAge) {
+        return submit(Lane.TELEMETRY, master -> master.getTorque(id, maxAge));
+    }
+
+    /**
+     * Stops accepting requests, lets the I/O thread finish the queued ones, waits for it
+     * and closes the transport.
+     */
+    @Override
+    public void close() throws Exception {
+        synchronized (__lanes) {
+            __running = false;
+        }
+        __io.join();
+        __master.close();
+    }
+
+    private void __run() {
+        while (true) {
+            BusRequest<?> request = __next();
+            if (request != null) {
+                synchronized (__master) {
+                    request.run(__master);
+                }
+                continue;
+            }
+            if (!__running && __drained()) {
+                return;
+            }
+            try {
+                __pending.tryAcquire(__untilReady(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            __pending.drainPermits();
+        }
+
+        RejectedExecutionException closed = new RejectedExecutionException("AsyncMaster is closed!");
+        for (int i = 0; i < __lanes.size(); i++) {
+            BusRequest<?> request;
+            while ((request = __lanes.get(i).poll()) != null || (request = __held.get(i).poll()) != null) {
+                request.future.completeExceptionally(closed);
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest due request of the highest priority lane that has one. Requests
+     * that are not due yet are held aside, so they never block the ones behind them.
+     * Once the master is closed every request counts as due.
+     */
+    private BusRequest<?> __next() {
+        long now = System.nanoTime();
+        for (int i = 0; i < __lanes.size(); i++) {
+            PriorityQueue<BusRequest<?>> held = __held.get(i);
+            BusRequest<?> request = held.peek();
+            if (request != null && __due(request, now)) {
+                held.poll();
+            } else {
+                while ((request = __lanes.get(i).poll()) != null && !__due(request, now)) {
+                    held.add(request);
+                }
+            }
+            if (request != null) {
+                __laneStats[i].record(Math.max(0, now - request.readyAt));
+                return request;
+            }
+        }
+        return null;
+    }
+
+    private boolean __due(BusRequest<?> request, long now) {
+        return !__running || request.readyAt - now <= 0;
+    }
+
+    private boolean __drained() {
+        for (int i = 0; i < __lanes.size(); i++) {
+            if (!__lanes.get(i).isEmpty() || !__held.get(i).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns how long the I/O thread may sleep before a held request is due.
+     */
+    private long __untilReady() {
+        long wait = TimeUnit.MILLISECONDS.toNanos(__POLL_MILLIS);
+        long now = System.nanoTime();
+        for (PriorityQueue<BusRequest<?>> held : __held) {
+            if (!held.isEmpty()) {
+                wait = Math.min(wait, held.peek().readyAt - now);
+            }
+        }
+        return Math.max(0, wait);
+    }
+}
@@ -0,0 +1,408 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cyclic exchange of a fixed set of registers with the attached drivers.
+ * <p>
+ * The application declares, per driver, which registers it writes every cycle
+ * ({@link #output}) and which it reads ({@link #input}). {@link #compile()} turns the
+ * declaration into a fixed transaction schedule: the outputs go out as SYNC_WRITE
+ * frames when every driver writes the same registers and that is shorter on the
+ * wire, as BULK_WRITE frames otherwise, and the inputs come back through BULK_READ.
+ * <p>
+ * Each cycle copies the output image into the drivers' registers, runs the schedule
+ * and copies the replies into the input image. Both images are plain {@code double}
+ * arrays addressed by the slots returned from {@link #outputSlot} and {@link #inputSlot}.
+ * When the engine is {@link #start started}, the images belong to the cycle thread
+ * and should be accessed from the cycle callback.
+ */
+final class ProcessImage {
+    private final Master __master;
+    private final Map<Integer, List<Index>> __declaredOutputs = new LinkedHashMap<>();
+    private final Map<Integer, List<Index>> __declaredInputs = new LinkedHashMap<>();
+    private boolean __compiled = false;
+
+    private int[] __outIds;
+    private int[] __outIndexes;
+    private double[] __outputs;
+    private int[] __inIds;
+    private int[] __inIndexes;
+    private double[] __inputs;
+
+    private final List<Index> __syncIndexes = new ArrayList<>();
+    private final List<int[]> __syncIds = new ArrayList<>();
+    private final List<BulkWrite> __bulkWrites = new ArrayList<>();
+    private final List<BulkRead> __bulkReads = new ArrayList<>();
+    private int __wireBytes = 0;
+
+    private LoopRunner __loop = null;
+    private long __cycles = 0;
+    private long __failedCycles = 0;
+    private Exception __lastError = null;
+
+    ProcessImage(Master master) {
+        __master = master;
+    }
+
+    /**
+     * Declares registers written to {@code id} every cycle.
+     */
+    public ProcessImage output(int id, Index... indexes) {
+        __declare(__declaredOutputs, id, indexes);
+        return this;
+    }
+
+    /**
+     * Declares registers read from {@code id} every cycle.
+     */
+    public ProcessImage input(int id, Index... indexes) {
+        __declare(__declaredInputs, id, indexes);
+        return this;
+    }
+
+    private void __declare(Map<Integer, List<Index>> declared, int id, Index[] indexes) {
+        if (__compiled) {
+            throw new IllegalStateException("Process image is already compiled!");
+        }
+        __master.driver(id);
+        List<Index> list = declared.computeIfAbsent(id, k -> new ArrayList<>());
+        for (Index index : indexes) {
+            if (!list.contains(index)) {
+                list.add(index);
+            }
+        }
+    }
+
+    /**
+     * Builds the images and the frame schedule. Declarations are fixed afterwards.
+     */
+    public ProcessImage compile() {
+        if (__compiled) {
+            return this;
+        }
+        if (__declaredOutputs.isEmpty() && __declaredInputs.isEmpty()) {
+            throw new IndexOutOfBoundsException("Given process image is empty!");
+        }
+
+        int outputs = 0;
+        for (List<Index> list : __declaredOutputs.values()) {
+            outputs += list.size();
+        }
+        __outIds = new int[outputs];
+        __outIndexes = new int[outputs];
+        __outputs = new double[outputs];
+        int slot = 0;
+        for (Map.Entry<Integer, List<Index>> entry : __declaredOutputs.entrySet()) {
+            for (Index index : entry.getValue()) {
+                __outIds[slot] = entry.getKey();
+                __outIndexes[slot] = index.ordinal();
+                __outputs[slot] = __master.driver(entry.getKey()).number(index.ordinal());
+                slot++;
+            }
+        }
+
+        int inputs = 0;
+        for (List<Index> list : __declaredInputs.values()) {
+            inputs += list.size();
+        }
+        __inIds = new int[inputs];
+        __inIndexes = new int[inputs];
+        __inputs = new double[inputs];
+        slot = 0;
+        for (Map.Entry<Integer, List<Index>> entry : __declaredInputs.entrySet()) {
+            for (Index index : entry.getValue()) {
+                __inIds[slot] = entry.getKey();
+                __inIndexes[slot] = index.ordinal();
+                slot++;
+            }
+        }
+
+        __compileWrites();
+        __compileReads();
+        __compiled = true;
+        return this;
+    }
+
+    /**
+     * Chooses SYNC_WRITE when every driver writes the same registers and that costs
+     * fewer wire bytes than BULK_WRITE; splits either kind at the frame size limit.
+     */
+    private void __compileWrites() {
+        if (__declaredOutputs.isEmpty()) {
+            return;
+        }
+
+        List<Index> common = null;
+        boolean uniform = true;
+        for (List<Index> list : __declaredOutputs.values()) {
+            if (common == null) {
+                common = list;
+            } else if (!common.equals(list)) {
+                uniform = false;
+            }
+        }
+
+        int[] ids = __declaredOutputs.keySet().stream().mapToInt(Integer::intValue).toArray();
+        int bulkBytes = __bulkWriteBytes(null);
+        if (uniform && __syncWriteBytes(common, ids.length) <= bulkBytes) {
+            for (Index index : common) {
+                int perFrame = (Frame.MAX_SIZE - Frame.HEADER_SIZE - Frame.CRC_SIZE - 1) / (1 + Registers.size(index.ordinal()));
+                for (int from = 0; from < ids.length; from += perFrame) {
+                    __syncIndexes.add(index);
+                    __syncIds.add(Arrays.copyOfRange(ids, from, Math.min(ids.length, from + perFrame)));
+                }
+            }
+            __wireBytes += __syncWriteBytes(common, ids.length);
+        } else {
+            __bulkWriteBytes(__bulkWrites);
+            __wireBytes += bulkBytes;
+        }
+    }
+
+    private static int __syncWriteBytes(List<Index> indexes, int drivers) {
+        int bytes = 0;
+        for (Index index : indexes) {
+            int perFrame = (Frame.MAX_SIZE - Frame.HEADER_SIZE - Frame.CRC_SIZE - 1) / (1 + Registers.size(index.ordinal()));
+            int frames = (drivers + perFrame - 1) / perFrame;
+            bytes += frames * (Frame.HEADER_SIZE + Frame.CRC_SIZE + 1 + Frame.GAP_BYTES) + drivers * (1 + Registers.size(index.ordinal()));
+        }
+        return bytes;
+    }
+
+    /**
+     * Packs the outputs into as few BULK_WRITE frames as fit, filling {@code frames} if given.
+     *
+     * @return the wire bytes of those frames, gaps included
+     */
+    private int __bulkWriteBytes(List<BulkWrite> frames) {
+        int bytes = 0;
+        int size = Frame.MAX_SIZE;
+        BulkWrite frame = null;
+        for (Map.Entry<Integer, List<Index>> entry : __declaredOutputs.entrySet()) {
+            int group = 2;
+            for (Index index : entry.getValue()) {
+                group += 1 + Registers.size(index.ordinal());
+            }
+            if (Frame.HEADER_SIZE + group + Frame.CRC_SIZE > Frame.MAX_SIZE) {
+                throw new IndexOutOfBoundsException("Outputs of " + entry.getKey() + " do not fit in one frame!");
+            }
+            if (size + group + Frame.CRC_SIZE > Frame.MAX_SIZE) {
+                bytes += Frame.HEADER_SIZE + Frame.CRC_SIZE + Frame.GAP_BYTES;
+                size = Frame.HEADER_SIZE;
+                if (frames != null) {
+                    frame = new BulkWrite(__master);
+                    frames.add(frame);
+                }
+            }
+            size += group;
+            bytes += group;
+            if (frame != null) {
+                for (Index index : entry.getValue()) {
+                    frame.add(entry.getKey(), index);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Packs the inputs into BULK_READ requests whose request frame fits the size limit.
+     */
+    private void __compileReads() {
+        Map<Integer, Index[]> request = new LinkedHashMap<>();
+        int size = Frame.HEADER_SIZE;
+        for (Map.Entry<Integer, List<Index>> entry : __declaredInputs.entrySet()) {
+            int group = 2 + entry.getValue().size();
+            int reply = Frame.HEADER_SIZE + Frame.CRC_SIZE;
+            for (Index index : entry.getValue()) {
+                reply += 1 + Registers.size(index.ordinal());
+            }
+            if (reply > Frame.MAX_SIZE || Frame.HEADER_SIZE + group + Frame.CRC_SIZE > Frame.MAX_SIZE) {
+                throw new IndexOutOfBoundsException("Inputs of " + entry.getKey() + " do not fit in one frame!");
+            }
+            if (size + group + Frame.CRC_SIZE > Frame.MAX_SIZE) {
+                __addRead(request);
+                request = new LinkedHashMap<>();
+                size = Frame.HEADER_SIZE;
+            }
+            request.put(entry.getKey(), entry.getValue().toArray(new Index[0]));
+            size += group;
+        }
+        if (!request.isEmpty()) {
+            __addRead(request);
+        }
+    }
+
+    private void __addRead(Map<Integer, Index[]> request) {
+        BulkRead read = new BulkRead(request);
+        __bulkReads.add(read);
+        __wireBytes += read.frame().limit() + read.replySize() + (1 + request.size()) * Frame.GAP_BYTES;
+    }
+
+    private void __checkCompiled() {
+        if (!__compiled) {
+            throw new IllegalStateException("Process image is not compiled!");
+        }
+    }
+
+    /**
+     * Returns the output image, written by the application and sent every cycle.
+     */
+    public double[] outputs() {
+        __checkCompiled();
+        return __outputs;
+    }
+
+    /**
+     * Returns the input image, refreshed from the replies every cycle.
+     */
+    public double[] inputs() {
+        __checkCompiled();
+        return __inputs;
+    }
+
+    public int outputSlot(int id, Index index) {
+        __checkCompiled();
+        return __slot(__outIds, __outIndexes, id, index);
+    }
+
+    public int inputSlot(int id, Index index) {
+        __checkCompiled();
+        return __slot(__inIds, __inIndexes, id, index);
+    }
+
+    private static int __slot(int[] ids, int[] indexes, int id, Index index) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == id && indexes[i] == index.ordinal()) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(index + " of " + id + " is not in the process image!");
+    }
+
+    /**
+     * Returns the number of frames sent per cycle, requests only.
+     */
+    public int frames() {
+        __checkCompiled();
+        return __syncIds.size() + __bulkWrites.size() + __bulkReads.size();
+    }
+
+    /**
+     * Returns the bytes one cycle puts on the wire: requests, replies and inter-frame gaps.
+     * At 10 bits per byte this bounds the shortest period the bus can sustain.
+     */
+    public int wireBytes() {
+        __checkCompiled();
+        return __wireBytes;
+    }
+
+    /**
+     * Runs one cycle: outputs to the drivers, then inputs from them. The whole cycle
+     * holds the Master's monitor, so no other bus operation lands between its frames.
+     *
+     * @return true if every driver in the read schedule replied
+     */
+    public boolean exchange() throws Exception {
+        __checkCompiled();
+        boolean replied = true;
+        synchronized (__master) {
+            for (int i = 0; i < __outputs.length; i++) {
+                __master.driver(__outIds[i]).set(__outIndexes[i], __outputs[i]);
+            }
+            for (int i = 0; i < __syncIds.size(); i++) {
+                __master.syncWrite(__syncIndexes.get(i), __syncIds.get(i));
+            }
+            for (int i = 0; i < __bulkWrites.size(); i++) {
+                __master.bulkWrite(__bulkWrites.get(i));
+            }
+
+            for (int i = 0; i < __bulkReads.size(); i++) {
+                replied &= __master.bulkRead(__bulkReads.get(i));
+            }
+            for (int i = 0; i < __inputs.length; i++) {
+                __inputs[i] = __master.driver(__inIds[i]).number(__inIndexes[i]);
+            }
+        }
+
+        synchronized (this) {
+            __cycles++;
+            if (!replied) {
+                __failedCycles++;
+            }
+        }
+        return replied;
+    }
+
+    /**
+     * Runs {@link #exchange()} every {@code periodNanos} on a dedicated {@link LoopRunner}
+     * thread, calling {@code callback} after each cycle with fresh inputs. Outputs
+     * written by the callback go out in the next cycle.
+     * <p>
+     * The callback runs even when the exchange failed, so it can react to a bus error;
+     * the inputs then hold what the last successful replies carried. Exceptions from
+     * either are kept in {@link #lastError()} and do not stop the loop.
+     *
+     * @return the runner, for its jitter and overrun statistics
+     */
+    public synchronized LoopRunner start(long periodNanos, Runnable callback) {
+        __checkCompiled();
+        if (__loop != null) {
+            throw new IllegalStateException("Process image is already running!");
+        }
+        __loop = new LoopRunner(periodNanos, () -> {
+            try {
+                exchange();
+            } catch (Exception e) {
+                synchronized (this) {
+                    __cycles++;
+                    __failedCycles++;
+                    __lastError = e;
+                }
+            }
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    __lastError = e;
+                }
+            }
+        });
+        return __loop.start();
+    }
+
+    /**
+     * Stops the cycle after the one in progress.
+     */
+    public void stop() throws InterruptedException {
+        LoopRunner loop;
+        synchronized (this) {
+            loop = __loop;
+            __loop = null;
+        }
+        if (loop != null) {
+            loop.stop();
+        }
+    }
+
+    public synchronized long cycles() {
+        return __cycles;
+    }
+
+    /**
+     * Returns the number of cycles in which a driver did not reply or the bus failed.
+     */
+    public synchronized long failedCycles() {
+        return __failedCycles;
+    }
+
+    /**
+     * Returns the last exception thrown by a cycle's exchange or callback, or null.
+     */
+    public synchronized Exception lastError() {
+        return __lastError;
+    }
+}
@@ -0,0 +1,104 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for one bus transaction: a request frame and, if one is
+ * awaited, its replies. The event spans from the write to the last reply or the deadline.
+ * <p>
+ * Disabled by default; enable {@code smd.Transaction} in a JFR settings file or with
+ * {@code -XX:StartFlightRecording:smd.Transaction#enabled=true}. While disabled, the
+ * {@link Master} does not create the event at all.
+ */
+@Name("smd.Transaction")
+@Label("SMD Transaction")
+@Category({"SMD", "Bus"})
+@Enabled(false)
+@StackTrace(false)
+final class TransactionEvent extends Event {
+    static final TransactionEvent PROBE = new TransactionEvent();
+
+    @Label("Bus")
+    String bus;
+
+    @Label("Driver ID")
+    @Description("255 for broadcast frames")
+    int driverId;
+
+    @Label("Command")
+    String command;
+
+    @Label("Bytes Written")
+    @DataAmount
+    int bytesWritten;
+
+    @Label("Bytes Read")
+    @DataAmount
+    int bytesRead;
+
+    @Label("Bus Wait")
+    @Description("Time spent waiting for the bus to go idle before writing")
+    @Timespan
+    long busWait;
+
+    @Label("Reply Wait")
+    @Timespan
+    long replyWait;
+
+    @Label("Result")
+    @Description("sent, ok or timeout")
+    String result;
+
+    @Label("Retry Count")
+    int retries;
+}
+
+/**
+ * Flight Recorder event for one phase of a long-running {@link Master} operation such
+ * as {@code scanModules} or {@code updateFwVersion}. Disabled by default, like
+ * {@link TransactionEvent}.
+ */
+@Name("smd.Phase")
+@Label("SMD Operation Phase")
+@Category({"SMD", "Bus"})
+@Enabled(false)
+@StackTrace(false)
+final class PhaseEvent extends Event {
+    static final PhaseEvent PROBE = new PhaseEvent();
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Driver ID")
+    int driverId;
+
+    /**
+     * Returns a begun event, or null without allocating when the event is disabled.
+     */
+    static PhaseEvent begin(String operation, String phase, int driverId) {
+        if (!PROBE.isEnabled()) {
+            return null;
+        }
+        PhaseEvent event = new PhaseEvent();
+        event.operation = operation;
+        event.phase = phase;
+        event.driverId = driverId;
+        event.begin();
+        return event;
+    }
+
+    static void commit(PhaseEvent event) {
+        if (event != null) {
+            event.commit();
+        }
+    }
+}
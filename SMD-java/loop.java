@@ -0,0 +1,265 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed-memory histogram of nanosecond durations.
+ * <p>
+ * Values are counted in buckets of 1/16 of a power of two, so every recorded value
+ * is known to within about 6% up to the largest long. Recording never allocates.
+ */
+final class Histogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] __counts = new long[BUCKETS];
+    private long __count = 0;
+    private long __sum = 0;
+    private long __min = Long.MAX_VALUE;
+    private long __max = 0;
+
+    public synchronized void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        __counts[__bucket(nanos)]++;
+        __count++;
+        __sum += nanos;
+        __min = Math.min(__min, nanos);
+        __max = Math.max(__max, nanos);
+    }
+
+    public synchronized long count() {
+        return __count;
+    }
+
+    public synchronized long minNanos() {
+        return __count == 0 ? 0 : __min;
+    }
+
+    public synchronized long maxNanos() {
+        return __max;
+    }
+
+    public synchronized long meanNanos() {
+        return __count == 0 ? 0 : __sum / __count;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the {@code percentile}th value, capped at the maximum.
+     */
+    public synchronized long percentileNanos(double percentile) {
+        if (__count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * __count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += __counts[i];
+            if (seen >= rank) {
+                return Math.min(__max, __upperBound(i));
+            }
+        }
+        return __max;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(__counts, 0);
+        __count = 0;
+        __sum = 0;
+        __min = Long.MAX_VALUE;
+        __max = 0;
+    }
+
+    /**
+     * Returns a copy that no longer changes.
+     */
+    public synchronized Histogram snapshot() {
+        Histogram copy = new Histogram();
+        System.arraycopy(__counts, 0, copy.__counts, 0, BUCKETS);
+        copy.__count = __count;
+        copy.__sum = __sum;
+        copy.__min = __min;
+        copy.__max = __max;
+        return copy;
+    }
+
+    /**
+     * Values below 16 get a bucket each; above that, the top five significant bits pick the bucket.
+     */
+    private static int __bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long __upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long base = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return base + (1L << shift) - 1;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("count=%d min=%dns mean=%dns p50=%dns p99=%dns max=%dns",
+            __count, minNanos(), meanNanos(), percentileNanos(50), percentileNanos(99), __max);
+    }
+}
+
+/**
+ * Runs a callback at a fixed period against absolute deadlines.
+ * <p>
+ * Deadline n is {@code start + n * period}, so timing errors never accumulate. The
+ * thread parks until shortly before each deadline and spins the rest of the way, the
+ * same way {@link Master} waits for the bus to go idle. A callback that runs past the
+ * next deadline is counted as an overrun and the missed periods are skipped, keeping
+ * the loop on its original phase.
+ * <p>
+ * Jitter (how late each callback started) and callback duration are recorded in
+ * {@link Histogram}s.
+ */
+final class LoopRunner implements AutoCloseable {
+    private static final long __SPIN_NANOS = 50_000;
+
+    private final long __period;
+    private final Runnable __callback;
+    private final Histogram __jitter = new Histogram();
+    private final Histogram __duration = new Histogram();
+    private volatile boolean __running = false;
+    private volatile long __overruns = 0;
+    private volatile long __skipped = 0;
+    private volatile long __iterations = 0;
+    private Thread __thread = null;
+
+    LoopRunner(long periodNanos, Runnable callback) {
+        if (periodNanos <= 0) {
+            throw new IllegalArgumentException("Loop period must be positive!");
+        }
+        __period = periodNanos;
+        __callback = callback;
+    }
+
+    /**
+     * Starts the loop on a dedicated platform thread at maximum priority.
+     */
+    public synchronized LoopRunner start() {
+        if (__thread != null) {
+            throw new IllegalStateException("Loop is already running!");
+        }
+        __running = true;
+        __thread = new Thread(this::__loop, "smd-loop");
+        __thread.setDaemon(true);
+        __thread.setPriority(Thread.MAX_PRIORITY);
+        __thread.start();
+        return this;
+    }
+
+    /**
+     * Runs the loop on the calling thread until {@link #stop()} is called from another thread or the callback.
+     */
+    public void run() {
+        __running = true;
+        __loop();
+    }
+
+    /**
+     * Stops the loop after the current iteration and waits for its thread.
+     */
+    public void stop() throws InterruptedException {
+        __running = false;
+        Thread thread;
+        synchronized (this) {
+            thread = __thread;
+            __thread = null;
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.join();
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        stop();
+    }
+
+    private void __loop() {
+        long deadline = System.nanoTime();
+        while (__running) {
+            awaitDeadline(deadline);
+            long start = System.nanoTime();
+            __jitter.record(start - deadline);
+
+            __callback.run();
+
+            long end = System.nanoTime();
+            __duration.record(end - start);
+            __iterations++;
+
+            deadline += __period;
+            if (end - deadline > 0) {
+                long missed = (end - deadline) / __period + 1;
+                __overruns++;
+                __skipped += missed;
+                deadline += missed * __period;
+            }
+        }
+    }
+
+    /**
+     * Parks until shortly before {@code deadline} and spins through the last few
+     * microseconds, which {@link LockSupport#parkNanos(long)} cannot resolve. Every
+     * wait on an absolute deadline in the library, bus idle and wire arrival times
+     * included, goes through here.
+     */
+    static void awaitDeadline(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > __SPIN_NANOS) {
+                LockSupport.parkNanos(remaining - __SPIN_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    public long periodNanos() {
+        return __period;
+    }
+
+    /**
+     * Returns how late each callback started relative to its deadline.
+     */
+    public Histogram jitter() {
+        return __jitter;
+    }
+
+    /**
+     * Returns how long each callback ran.
+     */
+    public Histogram duration() {
+        return __duration;
+    }
+
+    /**
+     * Returns the number of callbacks that ran past the next deadline.
+     */
+    public long overruns() {
+        return __overruns;
+    }
+
+    /**
+     * Returns the number of periods skipped because of overruns.
+     */
+    public long skippedPeriods() {
+        return __skipped;
+    }
+
+    public long iterations() {
+        return __iterations;
+    }
+}
@@ -0,0 +1,290 @@
+import java.util.Arrays;
+
+/**
+ * Round-trip latency and error counts of one bus, per command and driver ID.
+ * <p>
+ * Latency runs from the request frame being written to the reply being decoded.
+ * Each (command, ID) pair gets its own fixed-memory {@link Histogram} the first time
+ * it is used, so recording never allocates afterwards. A listed driver that does not
+ * reply before the deadline counts as a timeout. CRC errors cannot be attributed to a
+ * driver and are counted per bus.
+ */
+final class BusMetrics {
+    private final Histogram[][] __latency = new Histogram[256][];
+    private final long[][] __timeouts = new long[256][];
+    private long __crcErrors = 0;
+
+    synchronized void record(int command, int id, long nanos) {
+        Histogram[] byId = __latency[command];
+        if (byId == null) {
+            byId = __latency[command] = new Histogram[256];
+        }
+        if (byId[id] == null) {
+            byId[id] = new Histogram();
+        }
+        byId[id].record(nanos);
+    }
+
+    synchronized void timeout(int command, int id) {
+        if (__timeouts[command] == null) {
+            __timeouts[command] = new long[256];
+        }
+        __timeouts[command][id]++;
+    }
+
+    synchronized void crcErrors(long count) {
+        __crcErrors = count;
+    }
+
+    /**
+     * Returns a copy that no longer changes.
+     */
+    synchronized BusMetrics snapshot() {
+        BusMetrics copy = new BusMetrics();
+        for (int command = 0; command < 256; command++) {
+            if (__latency[command] != null) {
+                copy.__latency[command] = new Histogram[256];
+                for (int id = 0; id < 256; id++) {
+                    if (__latency[command][id] != null) {
+                        copy.__latency[command][id] = __latency[command][id].snapshot();
+                    }
+                }
+            }
+            if (__timeouts[command] != null) {
+                copy.__timeouts[command] = __timeouts[command].clone();
+            }
+        }
+        copy.__crcErrors = __crcErrors;
+        return copy;
+    }
+
+    synchronized void reset() {
+        for (int command = 0; command < 256; command++) {
+            __latency[command] = null;
+            __timeouts[command] = null;
+        }
+    }
+
+    /**
+     * Returns the latency histogram of {@code command} to {@code id}, empty if never recorded.
+     */
+    public synchronized Histogram latency(Commands command, int id) {
+        Histogram[] byId = __latency[command.getValue()];
+        return byId == null || byId[id] == null ? new Histogram() : byId[id];
+    }
+
+    public synchronized long timeouts(Commands command, int id) {
+        long[] byId = __timeouts[command.getValue()];
+        return byId == null ? 0 : byId[id];
+    }
+
+    /**
+     * Returns the number of received frames dropped for a bad CRC.
+     */
+    public synchronized long crcErrors() {
+        return __crcErrors;
+    }
+
+    /**
+     * Lists every (command, ID) pair with traffic, one per line.
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder text = new StringBuilder("crcErrors=" + __crcErrors);
+        for (int command = 0; command < 256; command++) {
+            for (int id = 0; id < 256; id++) {
+                Histogram latency = __latency[command] == null ? null : __latency[command][id];
+                long timeouts = __timeouts[command] == null ? 0 : __timeouts[command][id];
+                if (latency == null && timeouts == 0) {
+                    continue;
+                }
+                Commands known = Commands.of(command);
+                text.append(String.format("%n%s id=%d timeouts=%d %s", known != null ? known : command, id, timeouts,
+                    latency != null ? latency : ""));
+            }
+        }
+        return text.toString();
+    }
+}
+
+/**
+ * Rolling utilisation of one bus over the last second, split into what the wire time
+ * was spent on.
+ * <p>
+ * Every frame written or read is booked as payload (register values) and overhead
+ * (header with PackageSize, register indexes, IDs and group counts of SYNC and BULK
+ * frames, and the CRC), each at the wire time of its bytes. Turnaround is the time the
+ * Master held the bus waiting for replies beyond their wire time, timeouts included.
+ * Whatever is left of the window, inter-frame gaps included, is idle.
+ * <p>
+ * The window is a ring of ten 100 ms slots, so the figures trail the traffic by at
+ * most one slot and recording never allocates.
+ */
+final class BusStats {
+    private static final int __SLOTS = 10;
+    private static final long __SLOT_NANOS = 100_000_000L;
+
+    private final long[] __slot = new long[__SLOTS];
+    private final long[] __payload = new long[__SLOTS];
+    private final long[] __overhead = new long[__SLOTS];
+    private final long[] __turnaround = new long[__SLOTS];
+    private final long[] __frames = new long[__SLOTS];
+    private long __since;
+    private long __at;
+    private long __payloadBytes = 0;
+    private long __overheadBytes = 0;
+    private long __totalFrames = 0;
+
+    BusStats() {
+        __since = __at = System.nanoTime();
+        Arrays.fill(__slot, Long.MIN_VALUE);
+    }
+
+    /**
+     * Books one frame of {@code payload} value bytes and {@code overhead} other bytes at {@code byteNanos} each.
+     */
+    synchronized void frame(long now, int payload, int overhead, long byteNanos) {
+        int slot = __slot(now);
+        __payload[slot] += payload * byteNanos;
+        __overhead[slot] += overhead * byteNanos;
+        __frames[slot]++;
+        __payloadBytes += payload;
+        __overheadBytes += overhead;
+        __totalFrames++;
+    }
+
+    synchronized void turnaround(long now, long nanos) {
+        if (nanos > 0) {
+            __turnaround[__slot(now)] += nanos;
+        }
+    }
+
+    /**
+     * Returns a copy that no longer changes, with its window ending now.
+     */
+    synchronized BusStats snapshot() {
+        BusStats copy = new BusStats();
+        System.arraycopy(__slot, 0, copy.__slot, 0, __SLOTS);
+        System.arraycopy(__payload, 0, copy.__payload, 0, __SLOTS);
+        System.arraycopy(__overhead, 0, copy.__overhead, 0, __SLOTS);
+        System.arraycopy(__turnaround, 0, copy.__turnaround, 0, __SLOTS);
+        System.arraycopy(__frames, 0, copy.__frames, 0, __SLOTS);
+        copy.__since = __since;
+        copy.__payloadBytes = __payloadBytes;
+        copy.__overheadBytes = __overheadBytes;
+        copy.__totalFrames = __totalFrames;
+        return copy;
+    }
+
+    synchronized void reset() {
+        Arrays.fill(__slot, Long.MIN_VALUE);
+        __since = System.nanoTime();
+        __payloadBytes = 0;
+        __overheadBytes = 0;
+        __totalFrames = 0;
+    }
+
+    /**
+     * Returns the share of the window spent sending register values, in percent.
+     */
+    public synchronized double payloadPercent() {
+        return __percent(__payload);
+    }
+
+    /**
+     * Returns the share of the window spent on header, index, ID, count and CRC bytes, in percent.
+     */
+    public synchronized double overheadPercent() {
+        return __percent(__overhead);
+    }
+
+    public synchronized double turnaroundPercent() {
+        return __percent(__turnaround);
+    }
+
+    /**
+     * Returns the share of the window the bus was busy with frames, in percent.
+     */
+    public synchronized double utilisationPercent() {
+        return payloadPercent() + overheadPercent();
+    }
+
+    /**
+     * Returns the share of the window left for more traffic, in percent.
+     */
+    public synchronized double idlePercent() {
+        return Math.max(0, 100 - utilisationPercent() - turnaroundPercent());
+    }
+
+    /**
+     * Returns the frames written and read per second over the window.
+     */
+    public synchronized double framesPerSecond() {
+        long window = __window();
+        return window == 0 ? 0 : __sum(__frames) * 1e9 / window;
+    }
+
+    /**
+     * Returns the register value bytes written and read since the last reset.
+     */
+    public synchronized long payloadBytes() {
+        return __payloadBytes;
+    }
+
+    public synchronized long overheadBytes() {
+        return __overheadBytes;
+    }
+
+    public synchronized long frames() {
+        return __totalFrames;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("utilisation=%.1f%% payload=%.1f%% overhead=%.1f%% turnaround=%.1f%% idle=%.1f%% frames/s=%.0f",
+            utilisationPercent(), payloadPercent(), overheadPercent(), turnaroundPercent(), idlePercent(), framesPerSecond());
+    }
+
+    /**
+     * Returns the ring slot of {@code now}, clearing it if it still holds an older slot.
+     */
+    private int __slot(long now) {
+        long slot = Math.floorDiv(now, __SLOT_NANOS);
+        int i = (int) Math.floorMod(slot, (long) __SLOTS);
+        if (__slot[i] != slot) {
+            __slot[i] = slot;
+            __payload[i] = 0;
+            __overhead[i] = 0;
+            __turnaround[i] = 0;
+            __frames[i] = 0;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the sum of {@code values} over the slots still in the window.
+     */
+    private long __sum(long[] values) {
+        long current = Math.floorDiv(__at, __SLOT_NANOS);
+        long sum = 0;
+        for (int i = 0; i < __SLOTS; i++) {
+            if (__slot[i] != Long.MIN_VALUE && current - __slot[i] < __SLOTS) {
+                sum += values[i];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the length of the window: from the oldest live slot, or the last reset, up to the snapshot.
+     */
+    private long __window() {
+        long oldest = (Math.floorDiv(__at, __SLOT_NANOS) - __SLOTS + 1) * __SLOT_NANOS;
+        return Math.max(0, __at - Math.max(oldest, __since));
+    }
+
+    private double __percent(long[] nanos) {
+        long window = __window();
+        return window == 0 ? 0 : Math.min(100, __sum(nanos) * 100.0 / window);
+    }
+}
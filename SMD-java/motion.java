@@ -0,0 +1,252 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Target and S-curve profile of one axis in a coordinated {@link Master#goToAll} move.
+ */
+final class Move {
+    final int target;
+    final float time;
+    final float maxSpeed;
+    final float accel;
+    final int tolerance;
+
+    /**
+     * @param tolerance the distance from {@code target}, in ticks, at which the axis counts as arrived
+     */
+    Move(int target, float time, float maxSpeed, float accel, int tolerance) {
+        this.target = target;
+        this.time = time;
+        this.maxSpeed = maxSpeed;
+        this.accel = accel;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Returns a move at {@code speed} with unlimited acceleration, like {@link Master#goToConstantSpeed}.
+     */
+    static Move constantSpeed(int target, float speed, int tolerance) {
+        return new Move(target, 0, speed, (float) MotorConstants.MAX_ACCEL, tolerance);
+    }
+}
+
+/**
+ * Completes move futures by polling PresentPosition for every axis that is being waited on.
+ * <p>
+ * All pending waits share one poll stream: each period the poller sends a single
+ * BULK_READ of PresentPosition for the distinct waiting IDs, then completes every wait
+ * whose axis is within its tolerance. The thread sleeps while nothing is waited on.
+ * <p>
+ * Polls run on the poller's own thread while holding the {@link Master}'s monitor,
+ * which every bus operation of the Master takes as well, so the thread that started
+ * the moves can keep using the Master. An {@link AsyncMaster} does not use the poller;
+ * it polls arrivals on its own TELEMETRY lane.
+ */
+final class PositionPoller implements AutoCloseable {
+    private static final class Wait {
+        final int id;
+        final int target;
+        final int tolerance;
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+        Wait(int id, int target, int tolerance) {
+            this.id = id;
+            this.target = target;
+            this.tolerance = tolerance;
+        }
+    }
+
+    private final Master __master;
+    private final long __period;
+    private final List<Wait> __waits = new ArrayList<>();
+    private final Thread __thread;
+    private volatile boolean __running = true;
+    private List<BulkRead> __reads = List.of();
+    private final long[] __stamps = new long[256];
+    private long __polls = 0;
+
+    PositionPoller(Master master, long periodNanos) {
+        if (periodNanos <= 0) {
+            throw new IllegalArgumentException("Poll period must be positive!");
+        }
+        __master = master;
+        __period = periodNanos;
+        __thread = new Thread(this::__run, "smd-position-poller");
+        __thread.setDaemon(true);
+        __thread.start();
+    }
+
+    /**
+     * Returns a future completed with the position of {@code id} once it is within
+     * {@code tolerance} ticks of {@code target}. Cancelling the future ends the wait.
+     */
+    public CompletableFuture<Integer> await(int id, int target, int tolerance) {
+        Wait wait = new Wait(id, target, tolerance);
+        synchronized (this) {
+            if (!__running) {
+                throw new IllegalStateException("Position poller is closed!");
+            }
+            __waits.add(wait);
+            notifyAll();
+        }
+        return wait.future;
+    }
+
+    /**
+     * Returns the number of BULK_READ polls sent so far.
+     */
+    public synchronized long polls() {
+        return __polls;
+    }
+
+    public synchronized int pending() {
+        return __waits.size();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        synchronized (this) {
+            __running = false;
+            notifyAll();
+        }
+        if (__thread != Thread.currentThread()) {
+            __thread.join();
+        }
+        synchronized (this) {
+            for (Wait wait : __waits) {
+                wait.future.completeExceptionally(new IllegalStateException("Position poller is closed!"));
+            }
+            __waits.clear();
+        }
+    }
+
+    private void __run() {
+        long deadline = System.nanoTime();
+        while (true) {
+            List<Wait> waits;
+            synchronized (this) {
+                __waits.removeIf(wait -> wait.future.isDone());
+                while (__running && __waits.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    deadline = System.nanoTime();
+                }
+                if (!__running) {
+                    return;
+                }
+                waits = new ArrayList<>(__waits);
+            }
+
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+            deadline += __period;
+            if (deadline - System.nanoTime() < 0) {
+                deadline = System.nanoTime() + __period;
+            }
+
+            __poll(waits);
+        }
+    }
+
+    /**
+     * Reads every waiting axis with as few BULK_READs as fit and completes the waits that arrived.
+     * Only positions that came in with this poll are checked, so a driver that misses
+     * a poll keeps its wait open instead of being judged on a stale value. Any failure
+     * fails the affected waits instead of ending the poller thread.
+     */
+    private void __poll(List<Wait> waits) {
+        synchronized (__master) {
+            try {
+                List<BulkRead> reads = __request(waits);
+                for (BulkRead read : reads) {
+                    for (int id : read.ids()) {
+                        __stamps[id] = __master.driver(id).receivedAt(Index.PresentPosition);
+                    }
+                    __master.bulkRead(read);
+                    synchronized (this) {
+                        __polls++;
+                    }
+                }
+
+                for (Wait wait : waits) {
+                    Red driver = __master.driver(wait.id);
+                    if (driver.receivedAt(Index.PresentPosition) == __stamps[wait.id]) {
+                        continue;
+                    }
+                    int position = (int) driver.getFloat(Index.PresentPosition);
+                    if (Math.abs(wait.target - position) <= wait.tolerance) {
+                        wait.future.complete(position);
+                    }
+                }
+            } catch (Exception e) {
+                __failDetached(waits, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the BULK_READs for the waiting IDs, reusing the last ones while the set is unchanged.
+     * Each frame carries at most as many single-index groups as fit in {@link Frame#MAX_SIZE}.
+     */
+    private List<BulkRead> __request(List<Wait> waits) {
+        Map<Integer, Index[]> request = new LinkedHashMap<>();
+        for (Wait wait : waits) {
+            __master.driver(wait.id);
+            request.putIfAbsent(wait.id, new Index[]{Index.PresentPosition});
+        }
+        int cached = 0;
+        boolean same = true;
+        for (BulkRead read : __reads) {
+            for (int id : read.ids()) {
+                same &= request.containsKey(id);
+                cached++;
+            }
+        }
+        if (same && cached == request.size() && !__reads.isEmpty()) {
+            return __reads;
+        }
+
+        int perRead = (Frame.MAX_SIZE - Frame.HEADER_SIZE - Frame.CRC_SIZE) / 3;
+        List<BulkRead> reads = new ArrayList<>();
+        Map<Integer, Index[]> frame = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Index[]> entry : request.entrySet()) {
+            frame.put(entry.getKey(), entry.getValue());
+            if (frame.size() == perRead) {
+                reads.add(new BulkRead(frame));
+                frame = new LinkedHashMap<>();
+            }
+        }
+        if (!frame.isEmpty()) {
+            reads.add(new BulkRead(frame));
+        }
+        __reads = reads;
+        return __reads;
+    }
+
+    /**
+     * Fails the waits on drivers that are no longer attached; the others are polled again.
+     */
+    private void __failDetached(List<Wait> waits, Exception cause) {
+        for (Wait wait : waits) {
+            try {
+                __master.driver(wait.id);
+            } catch (IllegalArgumentException e) {
+                wait.future.completeExceptionally(e);
+            }
+        }
+        if (!(cause instanceof IllegalArgumentException)) {
+            for (Wait wait : waits) {
+                wait.future.completeExceptionally(cause);
+            }
+        }
+    }
+}
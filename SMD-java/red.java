@@ -3,6 +3,8 @@ import java.io.InputStreamReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.ByteBuffer;
@@ -11,18 +13,19 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.security.MessageDigest;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.zip.CRC32;
-import java.util.zip.Checksum;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import com.fazecast.jSerialComm.SerialPort;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
@@ -44,59 +47,37 @@ class UnsupportedFirmware extends Exception {
     }
 }
 
-class Data {
-    private int index;
-    private char type;
-    private boolean isConst;
-    private Object value;
+enum Commands {
+    WRITE(0x01), WRITE_ACK(0x80 | 0x01), READ(0x02), REBOOT(0x05), HARD_RESET(0x17), EEPROM_WRITE(0x03),
+    EEPROM_WRITE_ACK(0x80 | 0x03), PING(0x00), RESET_ENC(0x06), TUNE(0x07), MODULE_SCAN(0x04), BL_JUMP(0x30),
+    SYNC_WRITE(0x40 | 0x01), BULK_WRITE(0x20 | 0x01), BULK_READ(0x20 | 0x02);
 
-    public Data(int index, char type, boolean isConst, Object value) {
-        this.index = index;
-        this.type = type;
-        this.isConst = isConst;
-        this.value = value;
-    }
+    private static final Commands[] __BY_VALUE = new Commands[256];
 
-    public Data(int index, char type) {
-        this(index, type, false, null);
+    static {
+        for (Commands command : values()) {
+            __BY_VALUE[command.value] = command;
+        }
     }
 
-    public int getIndex() {
-        return index;
-    }
+    private final int value;
 
-    public char getType() {
-        return type;
+    Commands(int value) {
+        this.value = value;
     }
 
-    public Object getValue() {
+    public int getValue() {
         return value;
     }
 
-    public void setValue(Object value) {
-        this.value = value;
-    }
-
-    public int getSize() {
-        // Return the size based on the type
-        switch (this.type) {
-            case 'B':
-                return 1;
-            case 'H':
-                return 2;
-            case 'I':
-            case 'f':
-                return 4;
-            default:
-                return 0;
-        }
+    /**
+     * Returns the command with wire value {@code value}, or null if there is none.
+     */
+    static Commands of(int value) {
+        return __BY_VALUE[value & 0xFF];
     }
 }
 
-enum Commands {
-    WRITE, WRITE_ACK, READ, REBOOT, HARD_RESET, EEPROM_WRITE, EEPROM_WRITE_ACK, PING, RESET_ENC, TUNE, MODULE_SCAN, BL_JUMP
-}
-
 enum Index {
     Header, DeviceID, DeviceFamily, PackageSize, Command, Status, HardwareVersion, SoftwareVersion, Baudrate,
     OperationMode, TorqueEnable, OutputShaftCPR, OutputShaftRPM, UserIndicator, MinimumPositionLimit,
@@ -115,410 +96,1233 @@ enum Index {
     Pot_4, Pot_5, IMU_1, IMU_2, IMU_3, IMU_4, IMU_5, connected_bitfield, CRCValue
 }
 
+/**
+ * Wire layout of the register table, indexed by {@link Index} ordinal.
+ * <p>
+ * Holds the wire type, size in bytes and byte offset of every register. The
+ * offsets describe the layout of each driver's register file. The table is built
+ * once and shared by every driver.
+ */
+final class Registers {
+    private static final char[] TYPE = new char[Index.values().length];
+    private static final int[] SIZE = new int[TYPE.length];
+    private static final int[] OFFSET = new int[TYPE.length];
+    private static int __fileSize = 0;
+
+    static {
+        __define(Index.Header, 'B');
+        __define(Index.DeviceID, 'B');
+        __define(Index.DeviceFamily, 'B');
+        __define(Index.PackageSize, 'B');
+        __define(Index.Command, 'B');
+        __define(Index.Status, 'B');
+        __define(Index.HardwareVersion, 'I');
+        __define(Index.SoftwareVersion, 'I');
+        __define(Index.Baudrate, 'I');
+        __define(Index.OperationMode, 'B');
+        __define(Index.TorqueEnable, 'B');
+        __define(Index.OutputShaftCPR, 'f');
+        __define(Index.OutputShaftRPM, 'f');
+        __define(Index.UserIndicator, 'B');
+        __define(Index.MinimumPositionLimit, 'i');
+        __define(Index.MaximumPositionLimit, 'i');
+        __define(Index.TorqueLimit, 'H');
+        __define(Index.VelocityLimit, 'H');
+        __define(Index.PositionFF, 'f');
+        __define(Index.VelocityFF, 'f');
+        __define(Index.TorqueFF, 'f');
+        __define(Index.PositionDeadband, 'f');
+        __define(Index.VelocityDeadband, 'f');
+        __define(Index.TorqueDeadband, 'f');
+        __define(Index.PositionOutputLimit, 'f');
+        __define(Index.VelocityOutputLimit, 'f');
+        __define(Index.TorqueOutputLimit, 'f');
+        __define(Index.PositionScalerGain, 'f');
+        __define(Index.PositionPGain, 'f');
+        __define(Index.PositionIGain, 'f');
+        __define(Index.PositionDGain, 'f');
+        __define(Index.VelocityScalerGain, 'f');
+        __define(Index.VelocityPGain, 'f');
+        __define(Index.VelocityIGain, 'f');
+        __define(Index.VelocityDGain, 'f');
+        __define(Index.TorqueScalerGain, 'f');
+        __define(Index.TorquePGain, 'f');
+        __define(Index.TorqueIGain, 'f');
+        __define(Index.TorqueDGain, 'f');
+        __define(Index.SetPosition, 'f');
+        __define(Index.PositionControlMode, 'B');
+        __define(Index.SCurveSetpoint, 'f');
+        __define(Index.ScurveAccel, 'f');
+        __define(Index.SCurveMaxVelocity, 'f');
+        __define(Index.SCurveTime, 'f');
+        __define(Index.SetVelocity, 'f');
+        __define(Index.SetVelocityAcceleration, 'f');
+        __define(Index.SetTorque, 'f');
+        __define(Index.SetDutyCycle, 'f');
+        __define(Index.SetScanModuleMode, 'B');
+        __define(Index.SetManualBuzzer, 'B');
+        __define(Index.SetManualServo, 'B');
+        __define(Index.SetManualRGB, 'B');
+        __define(Index.SetManualButton, 'B');
+        __define(Index.SetManualLight, 'B');
+        __define(Index.SetManualJoystick, 'B');
+        __define(Index.SetManualDistance, 'B');
+        __define(Index.SetManualQTR, 'B');
+        __define(Index.SetManualPot, 'B');
+        __define(Index.SetManualIMU, 'B');
+        __define(Index.Buzzer_1, 'i');
+        __define(Index.Buzzer_2, 'i');
+        __define(Index.Buzzer_3, 'i');
+        __define(Index.Buzzer_4, 'i');
+        __define(Index.Buzzer_5, 'i');
+        __define(Index.Servo_1, 'B');
+        __define(Index.Servo_2, 'B');
+        __define(Index.Servo_3, 'B');
+        __define(Index.Servo_4, 'B');
+        __define(Index.Servo_5, 'B');
+        __define(Index.RGB_1, 'i');
+        __define(Index.RGB_2, 'i');
+        __define(Index.RGB_3, 'i');
+        __define(Index.RGB_4, 'i');
+        __define(Index.RGB_5, 'i');
+        __define(Index.PresentPosition, 'f');
+        __define(Index.PresentVelocity, 'f');
+        __define(Index.MotorCurrent, 'f');
+        __define(Index.AnalogPort, 'H');
+        __define(Index.Button_1, 'B');
+        __define(Index.Button_2, 'B');
+        __define(Index.Button_3, 'B');
+        __define(Index.Button_4, 'B');
+        __define(Index.Button_5, 'B');
+        __define(Index.Light_1, 'H');
+        __define(Index.Light_2, 'H');
+        __define(Index.Light_3, 'H');
+        __define(Index.Light_4, 'H');
+        __define(Index.Light_5, 'H');
+        __define(Index.Joystick_1, 'i');
+        __define(Index.Joystick_2, 'i');
+        __define(Index.Joystick_3, 'i');
+        __define(Index.Joystick_4, 'i');
+        __define(Index.Joystick_5, 'i');
+        __define(Index.Distance_1, 'H');
+        __define(Index.Distance_2, 'H');
+        __define(Index.Distance_3, 'H');
+        __define(Index.Distance_4, 'H');
+        __define(Index.Distance_5, 'H');
+        __define(Index.QTR_1, 'i');
+        __define(Index.QTR_2, 'i');
+        __define(Index.QTR_3, 'i');
+        __define(Index.QTR_4, 'i');
+        __define(Index.QTR_5, 'i');
+        __define(Index.Pot_1, 'B');
+        __define(Index.Pot_2, 'B');
+        __define(Index.Pot_3, 'B');
+        __define(Index.Pot_4, 'B');
+        __define(Index.Pot_5, 'B');
+        __define(Index.IMU_1, 'f');
+        __define(Index.IMU_2, 'f');
+        __define(Index.IMU_3, 'f');
+        __define(Index.IMU_4, 'f');
+        __define(Index.IMU_5, 'f');
+        __define(Index.connected_bitfield, 'I');
+        __define(Index.CRCValue, 'I');
+    }
+
+    private Registers() {
+    }
+
+    private static void __define(Index index, char type) {
+        int i = index.ordinal();
+        TYPE[i] = type;
+        SIZE[i] = sizeOf(type);
+        OFFSET[i] = __fileSize;
+        __fileSize += SIZE[i];
+    }
+
+    static int sizeOf(char type) {
+        switch (type) {
+            case 'B':
+                return 1;
+            case 'H':
+                return 2;
+            case 'I':
+            case 'i':
+            case 'f':
+                return 4;
+            default:
+                return 0;
+        }
+    }
+
+    static int count() {
+        return TYPE.length;
+    }
+
+    static char type(int index) {
+        return TYPE[index];
+    }
+
+    static int size(int index) {
+        return SIZE[index];
+    }
+
+    static int offset(int index) {
+        return OFFSET[index];
+    }
+
+    static int fileSize() {
+        return __fileSize;
+    }
+}
+
+/**
+ * Packet encoder for the SMD wire protocol.
+ * <p>
+ * A frame is the six byte header (Header, DeviceID, DeviceFamily, PackageSize,
+ * Command, Status), the command payload and a little-endian CRC32 of everything
+ * before it. All methods write into a caller supplied little-endian heap buffer
+ * and allocate nothing once the thread-local buffer and CRC have been created.
+ */
+final class Frame {
+    static final byte HEADER = 0x55;
+    static final byte DEVICE_FAMILY = (byte) 0xBA;
+    static final int BROADCAST_ID = 0xFF;
+    static final int HEADER_SIZE = 6;
+    static final int CRC_SIZE = 4;
+    static final int MAX_SIZE = 255;
+    /** Start bit, 8 data bits and stop bit of every byte on the wire. */
+    static final int BITS_PER_BYTE = 10;
+    /** Idle time, in byte times, the drivers need between two frames. */
+    static final int GAP_BYTES = 12;
+
+    private static final ThreadLocal<ByteBuffer> __BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAX_SIZE).order(ByteOrder.LITTLE_ENDIAN));
+    private static final ThreadLocal<CRC32> __CRC = ThreadLocal.withInitial(CRC32::new);
+
+    private Frame() {
+    }
+
+    /**
+     * Returns this thread's reusable frame buffer.
+     */
+    static ByteBuffer buffer() {
+        return __BUFFER.get();
+    }
+
+    static void begin(ByteBuffer out, int id, Commands command) {
+        out.clear();
+        out.order(ByteOrder.LITTLE_ENDIAN);
+        out.put(HEADER);
+        out.put((byte) id);
+        out.put(DEVICE_FAMILY);
+        out.put((byte) 0);
+        out.put((byte) command.getValue());
+        out.put((byte) 0);
+    }
+
+    static void putIndex(ByteBuffer out, int index) {
+        out.put((byte) index);
+    }
+
+    /**
+     * Writes PackageSize and the trailing CRC, then flips the buffer for reading.
+     *
+     * @return the total frame length in bytes
+     */
+    static int end(ByteBuffer out) {
+        int size = out.position() + CRC_SIZE;
+        if (size > MAX_SIZE) {
+            throw new IndexOutOfBoundsException("Package size " + size + " exceeds " + MAX_SIZE + " bytes!");
+        }
+        out.put(Index.PackageSize.ordinal(), (byte) size);
+        out.putInt((int) crc(out.array(), out.arrayOffset(), out.position()));
+        out.flip();
+        return size;
+    }
+
+    static long crc(byte[] data, int offset, int length) {
+        CRC32 crc = __CRC.get();
+        crc.reset();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+
+    static byte[] toArray(ByteBuffer frame) {
+        return Arrays.copyOfRange(frame.array(), frame.arrayOffset(), frame.arrayOffset() + frame.limit());
+    }
+
+    /**
+     * Returns the number of register value bytes in {@code frame}. Everything else in
+     * it (header, indexes, IDs, group counts and CRC) is protocol overhead.
+     */
+    static int payloadBytes(ByteBuffer frame) {
+        int end = frame.limit() - CRC_SIZE;
+        Commands command = Commands.of(frame.get(Index.Command.ordinal()));
+        if (command == null) {
+            return 0;
+        }
+        int payload = 0;
+        int pos = HEADER_SIZE;
+        int size;
+        switch (command) {
+            case WRITE:
+            case WRITE_ACK:
+            case EEPROM_WRITE:
+            case EEPROM_WRITE_ACK:
+                for (; (size = __valueSize(frame, pos, end)) > 0; pos += 1 + size) {
+                    payload += size;
+                }
+                return payload;
+            case SYNC_WRITE:
+                size = __valueSize(frame, pos, end);
+                return size == 0 ? 0 : (end - pos - 1) / (1 + size) * size;
+            case BULK_WRITE:
+                while (pos + 2 <= end) {
+                    int pairs = frame.get(pos + 1) & 0xFF;
+                    for (pos += 2; pairs > 0 && (size = __valueSize(frame, pos, end)) > 0; pairs--, pos += 1 + size) {
+                        payload += size;
+                    }
+                    if (pairs > 0) {
+                        break;
+                    }
+                }
+                return payload;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns the value size of the register indexed at {@code pos}, or 0 if it is not one.
+     */
+    private static int __valueSize(ByteBuffer frame, int pos, int end) {
+        if (pos >= end) {
+            return 0;
+        }
+        int index = frame.get(pos) & 0xFF;
+        return index < Registers.count() ? Registers.size(index) : 0;
+    }
+}
+
+/**
+ * Incremental decoder for frames coming back from the bus.
+ * <p>
+ * Received bytes are appended to a ring buffer as they arrive. {@link #poll()} hunts
+ * for the Header and DeviceFamily bytes, uses PackageSize to frame the packet and
+ * verifies the trailing CRC32. A bad candidate only costs one byte, so the decoder
+ * resynchronises on the next header instead of dropping the whole transaction.
+ */
+final class FrameDecoder {
+    private static final int CAPACITY = 1024;
+    private static final int MASK = CAPACITY - 1;
+    private static final int MIN_SIZE = Frame.HEADER_SIZE + Frame.CRC_SIZE;
+
+    private final byte[] __ring = new byte[CAPACITY];
+    private final CRC32 __crc = new CRC32();
+    private int __head = 0;
+    private int __tail = 0;
+    private int __size = 0;
+    private long __crcErrors = 0;
+
+    int available() {
+        return __tail - __head;
+    }
+
+    long crcErrors() {
+        return __crcErrors;
+    }
+
+    void clear() {
+        __head = __tail;
+        __size = 0;
+    }
+
+    /**
+     * Appends received bytes, discarding the oldest ones if the ring is full.
+     */
+    void feed(byte[] data, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            __ring[__tail++ & MASK] = data[offset + i];
+        }
+        if (available() > CAPACITY) {
+            __head = __tail - CAPACITY;
+            __size = 0;
+        }
+    }
+
+    /**
+     * Reads whatever the transport has buffered straight into the ring, without blocking.
+     *
+     * @return the number of bytes read, or -1 if the transport is closed
+     */
+    int readFrom(BusTransport transport) throws IOException {
+        if (available() == CAPACITY) {
+            return 0;
+        }
+        int offset = __tail & MASK;
+        int length = Math.min(CAPACITY - offset, CAPACITY - available());
+        int n = transport.read(__ring, offset, length);
+        if (n > 0) {
+            __tail += n;
+        }
+        return n;
+    }
+
+    /**
+     * Advances to the next complete frame with a valid CRC.
+     *
+     * @return the DeviceID of the frame, or -1 if no complete frame is buffered yet
+     */
+    int poll() {
+        if (__size != 0) {
+            return __byte(Index.DeviceID.ordinal());
+        }
+        while (available() >= MIN_SIZE) {
+            if (__byte(Index.Header.ordinal()) != (Frame.HEADER & 0xFF)
+                    || __byte(Index.DeviceFamily.ordinal()) != (Frame.DEVICE_FAMILY & 0xFF)) {
+                __head++;
+                continue;
+            }
+            int size = __byte(Index.PackageSize.ordinal());
+            if (size < MIN_SIZE) {
+                __head++;
+                continue;
+            }
+            if (available() < size) {
+                return -1;
+            }
+            if (__checksum(size - Frame.CRC_SIZE) != __bits(size - Frame.CRC_SIZE, Frame.CRC_SIZE)) {
+                __crcErrors++;
+                __head++;
+                continue;
+            }
+            __size = size;
+            return __byte(Index.DeviceID.ordinal());
+        }
+        return -1;
+    }
+
+    int command() {
+        return __byte(Index.Command.ordinal());
+    }
+
+    int status() {
+        return __byte(Index.Status.ordinal());
+    }
+
+    /**
+     * Returns the PackageSize of the current frame.
+     */
+    int size() {
+        return __size;
+    }
+
+    /**
+     * Returns the byte at {@code pos} of the current frame.
+     */
+    int byteAt(int pos) {
+        return __byte(pos);
+    }
+
+    /**
+     * Returns the little-endian value of {@code size} bytes at {@code pos} of the current frame.
+     */
+    int bitsAt(int pos, int size) {
+        return __bits(pos, size);
+    }
+
+    /**
+     * Stores the index/value pairs of the current frame into {@code driver}.
+     *
+     * @return the number of value bytes stored
+     */
+    int decodeInto(Red driver) {
+        int end = __size - Frame.CRC_SIZE;
+        int pos = Frame.HEADER_SIZE;
+        int payload = 0;
+        long now = System.nanoTime();
+        while (pos < end) {
+            int index = __byte(pos);
+            if (index >= Registers.count() || Registers.size(index) == 0 || pos + 1 + Registers.size(index) > end) {
+                break;
+            }
+            driver.store(index, __bits(pos + 1, Registers.size(index)));
+            driver.received(index, now);
+            payload += Registers.size(index);
+            pos += 1 + Registers.size(index);
+        }
+        return payload;
+    }
+
+    /**
+     * Drops the current frame from the ring.
+     */
+    void consume() {
+        __head += __size;
+        __size = 0;
+    }
+
+    private int __byte(int pos) {
+        return __ring[(__head + pos) & MASK] & 0xFF;
+    }
+
+    private int __bits(int pos, int size) {
+        int bits = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            bits = (bits << 8) | __byte(pos + i);
+        }
+        return bits;
+    }
+
+    private int __checksum(int length) {
+        int start = __head & MASK;
+        int first = Math.min(length, CAPACITY - start);
+        __crc.reset();
+        __crc.update(__ring, start, first);
+        __crc.update(__ring, 0, length - first);
+        return (int) __crc.getValue();
+    }
+}
+
 class Red {
-    private static final byte _HEADER = 0x55;
-    private static final byte _PRODUCT_TYPE = (byte) 0xBA;
-    private static final int _PACKAGE_ESSENTIAL_SIZE = 6;
+    /**
+     * The {@link #receivedAt(Index)} of a register that never came in a reply.
+     */
+    static final long NEVER = Long.MIN_VALUE;
+
+    private static final VarHandle __SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle __INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
 
     private int __ack_size = 0;
     private Object _config = null;
     private File _fw_file = null;
-    private List<Data> vars;
+    private final int __id;
+    private final byte[] __regs = new byte[Registers.fileSize()];
+    private final long[] __received = new long[Registers.count()];
 
     public Red(int ID) throws Exception {
         if (ID > 255 || ID < 0) {
             throw new IllegalArgumentException("Device ID can not be higher than 254 or lower than 0!");
         }
 
-        vars = new ArrayList<>();
-        vars.add(new Data(Index.Header.ordinal(), 'B', false, (int) _HEADER));
-        vars.add(new Data(Index.DeviceID.ordinal(), 'B'));
-        vars.add(new Data(Index.DeviceFamily.ordinal(), 'B', false, (int) _PRODUCT_TYPE));
-        vars.add(new Data(Index.PackageSize.ordinal(), 'B'));
-        vars.add(new Data(Index.Command.ordinal(), 'B'));
-        vars.add(new Data(Index.Status.ordinal(), 'B'));
-        vars.add(new Data(Index.HardwareVersion.ordinal(), 'I'));
-        vars.add(new Data(Index.SoftwareVersion.ordinal(), 'I'));
-        vars.add(new Data(Index.Baudrate.ordinal(), 'I'));
-        vars.add(new Data(Index.OperationMode.ordinal(), 'B'));
-        vars.add(new Data(Index.TorqueEnable.ordinal(), 'B'));
-        vars.add(new Data(Index.OutputShaftCPR.ordinal(), 'f'));
-        vars.add(new Data(Index.OutputShaftRPM.ordinal(), 'f'));
-        vars.add(new Data(Index.UserIndicator.ordinal(), 'B'));
-        vars.add(new Data(Index.MinimumPositionLimit.ordinal(), 'i'));
-        vars.add(new Data(Index.MaximumPositionLimit.ordinal(), 'i'));
-        vars.add(new Data(Index.TorqueLimit.ordinal(), 'H'));
-        vars.add(new Data(Index.VelocityLimit.ordinal(), 'H'));
-        vars.add(new Data(Index.PositionFF.ordinal(), 'f'));
-        vars.add(new Data(Index.VelocityFF.ordinal(), 'f'));
-        vars.add(new Data(Index.TorqueFF.ordinal(), 'f'));
-        vars.add(new Data(Index.PositionDeadband.ordinal(), 'f'));
-        vars.add(new Data(Index.VelocityDeadband.ordinal(), 'f'));
-        vars.add(new Data(Index.TorqueDeadband.ordinal(), 'f'));
-        vars.add(new Data(Index.PositionOutputLimit.ordinal(), 'f'));
-        vars.add(new Data(Index.VelocityOutputLimit.ordinal(), 'f'));
-        vars.add(new Data(Index.TorqueOutputLimit.ordinal(), 'f'));
-        vars.add(new Data(Index.PositionScalerGain.ordinal(), 'f'));
-        vars.add(new Data(Index.PositionPGain.ordinal(), 'f'));
-        vars.add(new Data(Index.PositionIGain.ordinal(), 'f'));
-        vars.add(new Data(Index.PositionDGain.ordinal(), 'f'));
-        vars.add(new Data(Index.VelocityScalerGain.ordinal(), 'f'));
-        vars.add(new Data(Index.VelocityPGain.ordinal(), 'f'));
-        vars.add(new Data(Index.VelocityIGain.ordinal(), 'f'));
-        vars.add(new Data(Index.VelocityDGain.ordinal(), 'f'));
-        vars.add(new Data(Index.TorqueScalerGain.ordinal(), 'f'));
-        vars.add(new Data(Index.TorquePGain.ordinal(), 'f'));
-        vars.add(new Data(Index.TorqueIGain.ordinal(), 'f'));
-        vars.add(new Data(Index.TorqueDGain.ordinal(), 'f'));
-        vars.add(new Data(Index.SetPosition.ordinal(), 'f'));
-        vars.add(new Data(Index.PositionControlMode.ordinal(), 'B'));
-        vars.add(new Data(Index.SCurveSetpoint.ordinal(), 'f'));
-        vars.add(new Data(Index.ScurveAccel.ordinal(), 'f'));
-        vars.add(new Data(Index.SCurveMaxVelocity.ordinal(), 'f'));
-        vars.add(new Data(Index.SCurveTime.ordinal(), 'f'));
-        vars.add(new Data(Index.SetVelocity.ordinal(), 'f'));
-        vars.add(new Data(Index.SetVelocityAcceleration.ordinal(), 'f'));
-        vars.add(new Data(Index.SetTorque.ordinal(), 'f'));
-        vars.add(new Data(Index.SetDutyCycle.ordinal(), 'f'));
-        vars.add(new Data(Index.SetScanModuleMode.ordinal(), 'B'));
-        vars.add(new Data(Index.SetManualBuzzer.ordinal(), 'B'));
-        vars.add(new Data(Index.SetManualServo.ordinal(), 'B'));
-        vars.add(new Data(Index.SetManualRGB.ordinal(), 'B'));
-        vars.add(new Data(Index.SetManualButton.ordinal(), 'B'));
-        vars.add(new Data(Index.SetManualLight.ordinal(), 'B'));
-        vars.add(new Data(Index.SetManualJoystick.ordinal(), 'B'));
-        vars.add(new Data(Index.SetManualDistance.ordinal(), 'B'));
-        vars.add(new Data(Index.SetManualQTR.ordinal(), 'B'));
-        vars.add(new Data(Index.SetManualPot.ordinal(), 'B'));
-        vars.add(new Data(Index.SetManualIMU.ordinal(), 'B'));
-        vars.add(new Data(Index.Buzzer_1.ordinal(), 'i'));
-        vars.add(new Data(Index.Buzzer_2.ordinal(), 'i'));
-        vars.add(new Data(Index.Buzzer_3.ordinal(), 'i'));
-        vars.add(new Data(Index.Buzzer_4.ordinal(), 'i'));
-        vars.add(new Data(Index.Buzzer_5.ordinal(), 'i'));
-        vars.add(new Data(Index.Servo_1.ordinal(), 'B'));
-        vars.add(new Data(Index.Servo_2.ordinal(), 'B'));
-        vars.add(new Data(Index.Servo_3.ordinal(), 'B'));
-        vars.add(new Data(Index.Servo_4.ordinal(), 'B'));
-        vars.add(new Data(Index.Servo_5.ordinal(), 'B'));
-        vars.add(new Data(Index.RGB_1.ordinal(), 'i'));
-        vars.add(new Data(Index.RGB_2.ordinal(), 'i'));
-        vars.add(new Data(Index.RGB_3.ordinal(), 'i'));
-        vars.add(new Data(Index.RGB_4.ordinal(), 'i'));
-        vars.add(new Data(Index.RGB_5.ordinal(), 'i'));
-        vars.add(new Data(Index.PresentPosition.ordinal(), 'f'));
-        vars.add(new Data(Index.PresentVelocity.ordinal(), 'f'));
-        vars.add(new Data(Index.MotorCurrent.ordinal(), 'f'));
-        vars.add(new Data(Index.AnalogPort.ordinal(), 'H'));
-        vars.add(new Data(Index.Button_1.ordinal(), 'B'));
-        vars.add(new Data(Index.Button_2.ordinal(), 'B'));
-        vars.add(new Data(Index.Button_3.ordinal(), 'B'));
-        vars.add(new Data(Index.Button_4.ordinal(), 'B'));
-        vars.add(new Data(Index.Button_5.ordinal(), 'B'));
-        vars.add(new Data(Index.Light_1.ordinal(), 'H'));
-        vars.add(new Data(Index.Light_2.ordinal(), 'H'));
-        vars.add(new Data(Index.Light_3.ordinal(), 'H'));
-        vars.add(new Data(Index.Light_4.ordinal(), 'H'));
-        vars.add(new Data(Index.Light_5.ordinal(), 'H'));
-        vars.add(new Data(Index.Joystick_1.ordinal(), 'i'));
-        vars.add(new Data(Index.Joystick_2.ordinal(), 'i'));
-        vars.add(new Data(Index.Joystick_3.ordinal(), 'i'));
-        vars.add(new Data(Index.Joystick_4.ordinal(), 'i'));
-        vars.add(new Data(Index.Joystick_5.ordinal(), 'i'));
-        vars.add(new Data(Index.Distance_1.ordinal(), 'H'));
-        vars.add(new Data(Index.Distance_2.ordinal(), 'H'));
-        vars.add(new Data(Index.Distance_3.ordinal(), 'H'));
-        vars.add(new Data(Index.Distance_4.ordinal(), 'H'));
-        vars.add(new Data(Index.Distance_5.ordinal(), 'H'));
-        vars.add(new Data(Index.QTR_1.ordinal(), 'i'));
-        vars.add(new Data(Index.QTR_2.ordinal(), 'i'));
-        vars.add(new Data(Index.QTR_3.ordinal(), 'i'));
-        vars.add(new Data(Index.QTR_4.ordinal(), 'i'));
-        vars.add(new Data(Index.QTR_5.ordinal(), 'i'));
-        vars.add(new Data(Index.Pot_1.ordinal(), 'B'));
-        vars.add(new Data(Index.Pot_2.ordinal(), 'B'));
-        vars.add(new Data(Index.Pot_3.ordinal(), 'B'));
-        vars.add(new Data(Index.Pot_4.ordinal(), 'B'));
-        vars.add(new Data(Index.Pot_5.ordinal(), 'B'));
-        vars.add(new Data(Index.IMU_1.ordinal(), 'f'));
-        vars.add(new Data(Index.IMU_2.ordinal(), 'f'));
-        vars.add(new Data(Index.IMU_3.ordinal(), 'f'));
-        vars.add(new Data(Index.IMU_4.ordinal(), 'f'));
-        vars.add(new Data(Index.IMU_5.ordinal(), 'f'));
-        vars.add(new Data(Index.connected_bitfield.ordinal(), 'I'));
-        vars.add(new Data(Index.CRCValue.ordinal(), 'I'));
-
-        this.vars.get(Index.DeviceID.ordinal()).setValue(ID);
+        __id = ID;
+        Arrays.fill(__received, NEVER);
+        store(Index.Header.ordinal(), Frame.HEADER & 0xFF);
+        store(Index.DeviceFamily.ordinal(), Frame.DEVICE_FAMILY & 0xFF);
+        store(Index.DeviceID.ordinal(), ID);
+    }
+
+    public int getId() {
+        return __id;
     }
 
     public int getAckSize() {
         return this.__ack_size;
     }
 
-    public byte[] setVariables(List<Integer> indexList, List<Object> valueList, boolean ack) throws Exception {
-        vars.get(Index.Command.ordinal()).setValue(ack ? Commands.WRITE_ACK : Commands.WRITE);
+    public float getFloat(Index index) {
+        return Float.intBitsToFloat(bits(index.ordinal()));
+    }
+
+    /**
+     * Returns a 32-bit register, or an 8/16-bit register zero-extended.
+     */
+    public int getInt(Index index) {
+        return bits(index.ordinal());
+    }
+
+    public long getU32(Index index) {
+        return bits(index.ordinal()) & 0xFFFFFFFFL;
+    }
+
+    public int getU16(Index index) {
+        return bits(index.ordinal()) & 0xFFFF;
+    }
+
+    public int getU8(Index index) {
+        return bits(index.ordinal()) & 0xFF;
+    }
 
-        StringBuilder fmtStr = new StringBuilder("<" + vars.subList(0, 6).stream().map(Data::getType).reduce("", String::concat));
-        for (int i = 0; i < indexList.size(); i++) {
-            vars.get(indexList.get(i)).setValue(valueList.get(i));
-            fmtStr.append("B").append(vars.get(indexList.get(i)).getType());
+    public void set(Index index, float value) {
+        set(index.ordinal(), value);
+    }
+
+    public void set(Index index, int value) {
+        set(index.ordinal(), value);
+    }
+
+    /**
+     * Stores {@code value} converted to the wire type of {@code index}.
+     */
+    void set(int index, double value) {
+        store(index, Registers.type(index) == 'f' ? Float.floatToRawIntBits((float) value) : (int) (long) value);
+    }
+
+    /**
+     * Returns the register value boxed as Float or Integer, for the List based API.
+     */
+    Object value(int index) {
+        return Registers.type(index) == 'f' ? (Object) Float.intBitsToFloat(bits(index)) : (Object) bits(index);
+    }
+
+    /**
+     * Returns the register value as a double, for the primitive process image.
+     */
+    double number(int index) {
+        switch (Registers.type(index)) {
+            case 'f':
+                return Float.intBitsToFloat(bits(index));
+            case 'I':
+                return bits(index) & 0xFFFFFFFFL;
+            default:
+                return bits(index);
         }
+    }
 
-        __ack_size = ByteBuffer.wrap(fmtStr.toString().getBytes()).order(ByteOrder.LITTLE_ENDIAN).limit();
+    /**
+     * Returns the raw little-endian bits of a register, zero-extended to 32 bits.
+     */
+    int bits(int index) {
+        int offset = Registers.offset(index);
+        switch (Registers.size(index)) {
+            case 1:
+                return __regs[offset] & 0xFF;
+            case 2:
+                return (short) __SHORT.get(__regs, offset) & 0xFFFF;
+            case 4:
+                return (int) __INT.get(__regs, offset);
+            default:
+                return 0;
+        }
+    }
 
-        ByteBuffer structOut = ByteBuffer.allocate(fmtStr.length());
-        structOut.put(fmtStr.toString().getBytes());
+    /**
+     * Stores raw little-endian bits into a register, truncated to its size.
+     */
+    void store(int index, int bits) {
+        int offset = Registers.offset(index);
+        switch (Registers.size(index)) {
+            case 1:
+                __regs[offset] = (byte) bits;
+                break;
+            case 2:
+                __SHORT.set(__regs, offset, (short) bits);
+                break;
+            case 4:
+                __INT.set(__regs, offset, bits);
+                break;
+            default:
+                break;
+        }
+    }
 
-        structOut.put(Index.PackageSize.ordinal(), (byte) (structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize()));
+    /**
+     * Returns the {@link System#nanoTime()} at which {@code index} was last decoded
+     * from a reply, or {@link #NEVER}.
+     */
+    public long receivedAt(Index index) {
+        return __received[index.ordinal()];
+    }
 
-        CRC32 crc = new CRC32();
-        crc.update(structOut.array());
+    /**
+     * Returns true if {@code index} was decoded from a reply at most {@code maxAgeNanos} ago.
+     */
+    boolean isFresh(int index, long maxAgeNanos) {
+        long at = __received[index];
+        return at != NEVER && System.nanoTime() - at <= maxAgeNanos;
+    }
 
-        vars.get(Index.CRCValue.ordinal()).setValue(crc.getValue());
+    void received(int index, long at) {
+        __received[index] = at;
+    }
 
-        ByteBuffer result = ByteBuffer.allocate(structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize());
-        result.put(structOut.array());
-        result.put(ByteBuffer.allocate(vars.get(Index.CRCValue.ordinal()).getSize()).order(ByteOrder.LITTLE_ENDIAN).putInt((int) vars.get(Index.CRCValue.ordinal()).getValue()));
+    /**
+     * Writes the value bytes of a register, without its index.
+     */
+    void putValue(ByteBuffer out, int index) {
+        out.put(__regs, Registers.offset(index), Registers.size(index));
+    }
 
-        return result.array();
+    /**
+     * Writes an index/value pair, the unit of every WRITE style payload.
+     */
+    void putRegister(ByteBuffer out, int index) {
+        Frame.putIndex(out, index);
+        putValue(out, index);
     }
 
-    public byte[] getVariables(List<Integer> indexList) throws Exception {
-        vars.get(Index.Command.ordinal()).setValue(Commands.READ);
+    /**
+     * Encodes a WRITE (or WRITE_ACK) frame for the first {@code count} indexes into {@code out},
+     * taking the values from this driver's registers.
+     *
+     * @return the frame length in bytes
+     */
+    public int setVariables(ByteBuffer out, int[] indexList, int count, boolean ack) {
+        Frame.begin(out, __id, ack ? Commands.WRITE_ACK : Commands.WRITE);
+        for (int i = 0; i < count; i++) {
+            putRegister(out, indexList[i]);
+        }
+        int size = Frame.end(out);
+        __ack_size = ack ? size : 0;
+        return size;
+    }
+
+    /**
+     * Stores the first {@code count} values into the registers, then encodes them as a WRITE (or WRITE_ACK) frame.
+     *
+     * @return the frame length in bytes
+     */
+    public int setVariables(ByteBuffer out, int[] indexList, double[] valueList, int count, boolean ack) {
+        for (int i = 0; i < count; i++) {
+            set(indexList[i], valueList[i]);
+        }
+        return setVariables(out, indexList, count, ack);
+    }
+
+    /**
+     * Encodes a READ frame for the first {@code count} indexes into {@code out}.
+     *
+     * @return the frame length in bytes
+     */
+    public int getVariables(ByteBuffer out, int[] indexList, int count) {
+        Frame.begin(out, __id, Commands.READ);
+        int ackSize = Frame.HEADER_SIZE + Frame.CRC_SIZE;
+        for (int i = 0; i < count; i++) {
+            Frame.putIndex(out, indexList[i]);
+            ackSize += 1 + Registers.size(indexList[i]);
+        }
+        __ack_size = ackSize;
+        return Frame.end(out);
+    }
+
+    /**
+     * Encodes a broadcast SYNC_WRITE frame setting {@code index} on the first {@code count} IDs.
+     * <p>
+     * The payload is the index followed by an (ID, value) pair per driver, each value
+     * taken from that driver's registers in the ID-indexed {@code drivers} table.
+     *
+     * @return the frame length in bytes
+     */
+    static int syncWrite(ByteBuffer out, int index, Red[] drivers, int[] ids, int count) {
+        Frame.begin(out, Frame.BROADCAST_ID, Commands.SYNC_WRITE);
+        Frame.putIndex(out, index);
+        for (int i = 0; i < count; i++) {
+            out.put((byte) ids[i]);
+            drivers[ids[i]].putValue(out, index);
+        }
+        return Frame.end(out);
+    }
 
-        StringBuilder fmtStr = new StringBuilder("<" + vars.subList(0, 6).stream().map(Data::getType).reduce("", String::concat));
-        fmtStr.append("B".repeat(indexList.size()));
+    public byte[] setVariables(List<Integer> indexList, List<Object> valueList, boolean ack) throws Exception {
+        int[] indexes = new int[indexList.size()];
+        double[] values = new double[indexList.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = indexList.get(i);
+            values[i] = ((Number) valueList.get(i)).doubleValue();
+        }
 
-        __ack_size = ByteBuffer.wrap(fmtStr.toString().getBytes()).order(ByteOrder.LITTLE_ENDIAN).limit()
-                + ByteBuffer.allocate(vars.get(Index.CRCValue.ordinal()).getSize()).order(ByteOrder.LITTLE_ENDIAN).limit()
-                + ByteBuffer.wrap(indexList.stream().map(vars::get).map(Data::getType).reduce("", String::concat).getBytes()).order(ByteOrder.LITTLE_ENDIAN).limit();
+        ByteBuffer out = Frame.buffer();
+        setVariables(out, indexes, values, indexes.length, ack);
+        return Frame.toArray(out);
+    }
 
-        ByteBuffer structOut = ByteBuffer.allocate(fmtStr.length());
-        structOut.put(fmtStr.toString().getBytes());
+    public byte[] getVariables(List<Integer> indexList) throws Exception {
+        int[] indexes = indexList.stream().mapToInt(Integer::intValue).toArray();
 
-        structOut.put(Index.PackageSize.ordinal(), (byte) (structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize()));
+        ByteBuffer out = Frame.buffer();
+        getVariables(out, indexes, indexes.length);
+        return Frame.toArray(out);
+    }
 
-        CRC32 crc = new CRC32();
-        crc.update(structOut.array());
+    private int __command(ByteBuffer out, Commands command, boolean expectAck) {
+        Frame.begin(out, __id, command);
+        int size = Frame.end(out);
+        __ack_size = expectAck ? size : 0;
+        return size;
+    }
 
-        vars.get(Index.CRCValue.ordinal()).setValue(crc.getValue());
+    public int reboot(ByteBuffer out) {
+        return __command(out, Commands.REBOOT, false);
+    }
 
-        ByteBuffer result = ByteBuffer.allocate(structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize());
-        result.put(structOut.array());
-        result.put(ByteBuffer.allocate(vars.get(Index.CRCValue.ordinal()).getSize()).order(ByteOrder.LITTLE_ENDIAN).putInt((int) vars.get(Index.CRCValue.ordinal()).getValue()));
+    public int factoryReset(ByteBuffer out) {
+        return __command(out, Commands.HARD_RESET, false);
+    }
 
-        return result.array();
+    public int EEPROMWrite(ByteBuffer out, boolean ack) {
+        return __command(out, ack ? Commands.EEPROM_WRITE_ACK : Commands.EEPROM_WRITE, true);
     }
 
-    public byte[] reboot() throws Exception {
-        vars.get(Index.Command.ordinal()).setValue(Commands.REBOOT);
-        String fmtStr = "<" + vars.subList(0, 6).stream().map(Data::getType).reduce("", String::concat);
-        ByteBuffer structOut = ByteBuffer.allocate(fmtStr.length());
-        structOut.put(fmtStr.getBytes());
-        structOut.put(Index.PackageSize.ordinal(), (byte) (structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize()));
-        CRC32 crc = new CRC32();
-        crc.update(structOut.array());
-        vars.get(Index.CRCValue.ordinal()).setValue(crc.getValue());
-        __ack_size = 0;
+    public int ping(ByteBuffer out) {
+        return __command(out, Commands.PING, true);
+    }
 
-        ByteBuffer result = ByteBuffer.allocate(structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize());
-        result.put(structOut.array());
-        result.put(ByteBuffer.allocate(vars.get(Index.CRCValue.ordinal()).getSize()).order(ByteOrder.LITTLE_ENDIAN).putInt((int) vars.get(Index.CRCValue.ordinal()).getValue()));
+    public int resetEncoder(ByteBuffer out) {
+        return __command(out, Commands.RESET_ENC, true);
+    }
 
-        return result.array();
+    public int tune(ByteBuffer out) {
+        return __command(out, Commands.TUNE, false);
     }
 
-    public byte[] factoryReset() throws Exception {
-        vars.get(Index.Command.ordinal()).setValue(Commands.HARD_RESET);
-        String fmtStr = "<" + vars.subList(0, 6).stream().map(Data::getType).reduce("", String::concat);
-        ByteBuffer structOut = ByteBuffer.allocate(fmtStr.length());
-        structOut.put(fmtStr.getBytes());
-        structOut.put(Index.PackageSize.ordinal(), (byte) (structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize()));
-        CRC32 crc = new CRC32();
-        crc.update(structOut.array());
-        vars.get(Index.CRCValue.ordinal()).setValue(crc.getValue());
+    public int scanModules(ByteBuffer out) {
+        return __command(out, Commands.MODULE_SCAN, true);
+    }
+
+    public int enterBootloader(ByteBuffer out) {
+        return __command(out, Commands.BL_JUMP, false);
+    }
+
+    public int updateDriverId(ByteBuffer out, int id) {
+        Frame.begin(out, __id, Commands.WRITE);
+        Frame.putIndex(out, Index.DeviceID.ordinal());
+        out.put((byte) id);
         __ack_size = 0;
+        return Frame.end(out);
+    }
 
-        ByteBuffer result = ByteBuffer.allocate(structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize());
-        result.put(structOut.array());
-        result.put(ByteBuffer.allocate(vars.get(Index.CRCValue.ordinal()).getSize()).order(ByteOrder.LITTLE_ENDIAN).putInt((int) vars.get(Index.CRCValue.ordinal()).getValue()));
+    public byte[] reboot() throws Exception {
+        reboot(Frame.buffer());
+        return Frame.toArray(Frame.buffer());
+    }
 
-        return result.array();
+    public byte[] factoryReset() throws Exception {
+        factoryReset(Frame.buffer());
+        return Frame.toArray(Frame.buffer());
     }
 
     public byte[] EEPROMWrite(boolean ack) throws Exception {
-        vars.get(Index.Command.ordinal()).setValue(ack ? Commands.EEPROM_WRITE_ACK : Commands.EEPROM_WRITE);
-        String fmtStr = "<" + vars.subList(0, 6).stream().map(Data::getType).reduce("", String::concat);
-        ByteBuffer structOut = ByteBuffer.allocate(fmtStr.length());
-        structOut.put(fmtStr.getBytes());
-        structOut.put(Index.PackageSize.ordinal(), (byte) (structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize()));
-        CRC32 crc = new CRC32();
-        crc.update(structOut.array());
-        vars.get(Index.CRCValue.ordinal()).setValue(crc.getValue());
-        __ack_size = ByteBuffer.wrap(fmtStr.getBytes()).order(ByteOrder.LITTLE_ENDIAN).limit() + vars.get(Index.CRCValue.ordinal()).getSize();
+        EEPROMWrite(Frame.buffer(), ack);
+        return Frame.toArray(Frame.buffer());
+    }
 
-        ByteBuffer result = ByteBuffer.allocate(structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize());
-        result.put(structOut.array());
-        result.put(ByteBuffer.allocate(vars.get(Index.CRCValue.ordinal()).getSize()).order(ByteOrder.LITTLE_ENDIAN).putInt((int) vars.get(Index.CRCValue.ordinal()).getValue()));
+    public byte[] ping() throws Exception {
+        ping(Frame.buffer());
+        return Frame.toArray(Frame.buffer());
+    }
 
-        return result.array();
+    public byte[] resetEncoder() throws Exception {
+        resetEncoder(Frame.buffer());
+        return Frame.toArray(Frame.buffer());
     }
 
-    public byte[] ping() throws Exception {
-        vars.get(Index.Command.ordinal()).setValue(Commands.PING);
-        String fmtStr = "<" + vars.subList(0, 6).stream().map(Data::getType).reduce("", String::concat);
-        ByteBuffer structOut = ByteBuffer.allocate(fmtStr.length());
-        structOut.put(fmtStr.getBytes());
-        structOut.put(Index.PackageSize.ordinal(), (byte) (structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize()));
-        CRC32 crc = new CRC32();
-        crc.update(structOut.array());
-        vars.get(Index.CRCValue.ordinal()).setValue(crc.getValue());
-        __ack_size = ByteBuffer.wrap(fmtStr.getBytes()).order(ByteOrder.LITTLE_ENDIAN).limit() + vars.get(Index.CRCValue.ordinal()).getSize();
+    public byte[] tune() throws Exception {
+        tune(Frame.buffer());
+        return Frame.toArray(Frame.buffer());
+    }
+
+    public byte[] scanModules() throws Exception {
+        scanModules(Frame.buffer());
+        return Frame.toArray(Frame.buffer());
+    }
 
-        ByteBuffer result = ByteBuffer.allocate(structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize());
-        result.put(structOut.array());
-        result.put(ByteBuffer.allocate(vars.get(Index.CRCValue.ordinal()).getSize()).order(ByteOrder.LITTLE_ENDIAN).putInt((int) vars.get(Index.CRCValue.ordinal()).getValue()));
+    public byte[] enterBootloader() throws Exception {
+        enterBootloader(Frame.buffer());
+        return Frame.toArray(Frame.buffer());
+    }
 
-        return result.array();
+    public byte[] updateDriverId(int id) throws Exception {
+        updateDriverId(Frame.buffer(), id);
+        return Frame.toArray(Frame.buffer());
     }
+}
 
-    public byte[] resetEncoder() throws Exception {
-        vars.get(Index.Command.ordinal()).setValue(Commands.RESET_ENC);
-        String fmtStr = "<" + vars.subList(0, 6).stream().map(Data::getType).reduce("", String::concat);
-        ByteBuffer structOut = ByteBuffer.allocate(fmtStr.length());
-        structOut.put(fmtStr.getBytes());
-        structOut.put(Index.PackageSize.ordinal(), (byte) (structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize()));
-        CRC32 crc = new CRC32();
-        crc.update(structOut.array());
-        vars.get(Index.CRCValue.ordinal()).setValue(crc.getValue());
-        __ack_size = ByteBuffer.wrap(fmtStr.getBytes()).order(ByteOrder.LITTLE_ENDIAN).limit() + vars.get(Index.CRCValue.ordinal()).getSize();
+/**
+ * A pre-compiled BULK_READ request.
+ * <p>
+ * The request frame is the broadcast header followed by an (ID, index count, indexes...)
+ * group per driver. Each listed driver answers with its own read reply, in request
+ * order. The frame does not depend on register values, so it is encoded once and
+ * reused on every call to {@link Master#bulkRead(BulkRead)}.
+ */
+final class BulkRead {
+    private final int[] __ids;
+    private final ByteBuffer __frame;
+    private final int __replySize;
+
+    BulkRead(Map<Integer, Index[]> request) {
+        if (request.isEmpty()) {
+            throw new IndexOutOfBoundsException("Given bulk read request is empty!");
+        }
 
-        ByteBuffer result = ByteBuffer.allocate(structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize());
-        result.put(structOut.array());
-        result.put(ByteBuffer.allocate(vars.get(Index.CRCValue.ordinal()).getSize()).order(ByteOrder.LITTLE_ENDIAN).putInt((int) vars.get(Index.CRCValue.ordinal()).getValue()));
+        int size = Frame.HEADER_SIZE + Frame.CRC_SIZE;
+        for (Index[] indexes : request.values()) {
+            size += 2 + indexes.length;
+        }
+        if (size > Frame.MAX_SIZE) {
+            throw new IndexOutOfBoundsException("Package size " + size + " exceeds " + Frame.MAX_SIZE + " bytes!");
+        }
 
-        return result.array();
+        __ids = new int[request.size()];
+        int replySize = 0;
+        ByteBuffer out = ByteBuffer.allocate(Frame.MAX_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        Frame.begin(out, Frame.BROADCAST_ID, Commands.BULK_READ);
+        int i = 0;
+        for (Map.Entry<Integer, Index[]> entry : request.entrySet()) {
+            int id = entry.getKey();
+            if (id < 0 || id > 254) {
+                throw new IllegalArgumentException(id + " is not a valid ID!");
+            }
+            if (entry.getValue().length == 0) {
+                throw new IndexOutOfBoundsException("Given index list for " + id + " is empty!");
+            }
+            __ids[i++] = id;
+            out.put((byte) id);
+            out.put((byte) entry.getValue().length);
+            replySize += Frame.HEADER_SIZE + Frame.CRC_SIZE;
+            for (Index index : entry.getValue()) {
+                Frame.putIndex(out, index.ordinal());
+                replySize += 1 + Registers.size(index.ordinal());
+            }
+        }
+        Frame.end(out);
+        __frame = out;
+        __replySize = replySize;
     }
 
-    public byte[] tune() throws Exception {
-        vars.get(Index.Command.ordinal()).setValue(Commands.TUNE);
-        String fmtStr = "<" + vars.subList(0, 6).stream().map(Data::getType).reduce("", String::concat);
-        ByteBuffer structOut = ByteBuffer.allocate(fmtStr.length());
-        structOut.put(fmtStr.getBytes());
-        structOut.put(Index.PackageSize.ordinal(), (byte) (structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize()));
-        CRC32 crc = new CRC32();
-        crc.update(structOut.array());
-        vars.get(Index.CRCValue.ordinal()).setValue(crc.getValue());
-        __ack_size = 0;
+    /**
+     * Returns the total size of all replies, in bytes.
+     */
+    int replySize() {
+        return __replySize;
+    }
 
-        ByteBuffer result = ByteBuffer.allocate(structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize());
-        result.put(structOut.array());
-        result.put(ByteBuffer.allocate(vars.get(Index.CRCValue.ordinal()).getSize()).order(ByteOrder.LITTLE_ENDIAN).putInt((int) vars.get(Index.CRCValue.ordinal()).getValue()));
+    int[] ids() {
+        return __ids;
+    }
 
-        return result.array();
+    ByteBuffer frame() {
+        return __frame;
     }
+}
 
-    public byte[] scanModules() throws Exception {
-        vars.get(Index.Command.ordinal()).setValue(Commands.MODULE_SCAN);
-        String fmtStr = "<" + vars.subList(0, 6).stream().map(Data::getType).reduce("", String::concat);
-        ByteBuffer structOut = ByteBuffer.allocate(fmtStr.length());
-        structOut.put(fmtStr.getBytes());
-        structOut.put(Index.PackageSize.ordinal(), (byte) (structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize()));
-        CRC32 crc = new CRC32();
-        crc.update(structOut.array());
-        vars.get(Index.CRCValue.ordinal()).setValue(crc.getValue());
-        __ack_size = ByteBuffer.wrap(fmtStr.getBytes()).order(ByteOrder.LITTLE_ENDIAN).limit() + vars.get(Index.CRCValue.ordinal()).getSize();
+/**
+ * Builder for a BULK_WRITE frame.
+ * <p>
+ * Values are stored in the drivers' registers as they are added. The frame is the
+ * broadcast header followed by an (ID, pair count, index/value pairs...) group per
+ * driver, encoded with the same index/value writer as {@link Red#setVariables}.
+ * A builder can be cleared and refilled every cycle without allocating.
+ */
+final class BulkWrite {
+    private final Master __master;
+    private final int[] __ids = new int[Frame.MAX_SIZE];
+    private final int[] __indexes = new int[Frame.MAX_SIZE];
+    private int __count = 0;
 
-        ByteBuffer result = ByteBuffer.allocate(structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize());
-        result.put(structOut.array());
-        result.put(ByteBuffer.allocate(vars.get(Index.CRCValue.ordinal()).getSize()).order(ByteOrder.LITTLE_ENDIAN).putInt((int) vars.get(Index.CRCValue.ordinal()).getValue()));
+    BulkWrite(Master master) {
+        __master = master;
+    }
 
-        return result.array();
+    public BulkWrite set(int id, Index index, float value) {
+        __master.driver(id).set(index, value);
+        return add(id, index);
     }
 
-    public byte[] enterBootloader() throws Exception {
-        vars.get(Index.Command.ordinal()).setValue(Commands.BL_JUMP);
-        String fmtStr = "<" + vars.subList(0, 6).stream().map(Data::getType).reduce("", String::concat);
-        ByteBuffer structOut = ByteBuffer.allocate(fmtStr.length());
-        structOut.put(fmtStr.getBytes());
-        structOut.put(Index.PackageSize.ordinal(), (byte) (structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize()));
-        CRC32 crc = new CRC32();
-        crc.update(structOut.array());
-        vars.get(Index.CRCValue.ordinal()).setValue(crc.getValue());
-        __ack_size = 0;
+    public BulkWrite set(int id, Index index, int value) {
+        __master.driver(id).set(index, value);
+        return add(id, index);
+    }
 
-        ByteBuffer result = ByteBuffer.allocate(structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize());
-        result.put(structOut.array());
-        result.put(ByteBuffer.allocate(vars.get(Index.CRCValue.ordinal()).getSize()).order(ByteOrder.LITTLE_ENDIAN).putInt((int) vars.get(Index.CRCValue.ordinal()).getValue()));
+    public BulkWrite clear() {
+        __count = 0;
+        return this;
+    }
 
-        return result.array();
+    public void send() throws Exception {
+        __master.bulkWrite(this);
     }
 
-    public byte[] updateDriverId(int id) throws Exception {
-        vars.get(Index.Command.ordinal()).setValue(Commands.WRITE);
-        StringBuilder fmtStr = new StringBuilder("<" + vars.subList(0, 6).stream().map(Data::getType).reduce("", String::concat) + "B" + vars.get(Index.DeviceID.ordinal()).getType());
-        ByteBuffer structOut = ByteBuffer.allocate(fmtStr.length());
-        structOut.put(fmtStr.toString().getBytes());
-        structOut.putInt(Index.DeviceID.ordinal(), id);
-        structOut.put(Index.PackageSize.ordinal(), (byte) (structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize()));
-        CRC32 crc = new CRC32();
-        crc.update(structOut.array());
-        vars.get(Index.CRCValue.ordinal()).setValue(crc.getValue());
-
-        ByteBuffer result = ByteBuffer.allocate(structOut.capacity() + vars.get(Index.CRCValue.ordinal()).getSize());
-        result.put(structOut.array());
-        result.put(ByteBuffer.allocate(vars.get(Index.CRCValue.ordinal()).getSize()).order(ByteOrder.LITTLE_ENDIAN).putInt((int) vars.get(Index.CRCValue.ordinal()).getValue()));
-
-        return result.array();
+    /**
+     * Adds {@code index} of {@code id} with the value already in the driver's registers.
+     */
+    BulkWrite add(int id, Index index) {
+        if (__count == __ids.length) {
+            throw new IndexOutOfBoundsException("Too many values for one bulk write!");
+        }
+        __ids[__count] = id;
+        __indexes[__count] = index.ordinal();
+        __count++;
+        return this;
+    }
+
+    /**
+     * Encodes the frame, grouping pairs by driver in the order drivers were first added.
+     *
+     * @return the frame length in bytes
+     */
+    int encode(ByteBuffer out) {
+        if (__count == 0) {
+            throw new IndexOutOfBoundsException("Given bulk write request is empty!");
+        }
+
+        Frame.begin(out, Frame.BROADCAST_ID, Commands.BULK_WRITE);
+        for (int i = 0; i < __count; i++) {
+            if (__seen(i)) {
+                continue;
+            }
+            int pairs = 0;
+            for (int j = i; j < __count; j++) {
+                if (__ids[j] == __ids[i]) {
+                    pairs++;
+                }
+            }
+            out.put((byte) __ids[i]);
+            out.put((byte) pairs);
+            Red driver = __master.driver(__ids[i]);
+            for (int j = i; j < __count; j++) {
+                if (__ids[j] == __ids[i]) {
+                    driver.putRegister(out, __indexes[j]);
+                }
+            }
+        }
+        return Frame.end(out);
+    }
+
+    private boolean __seen(int i) {
+        for (int j = 0; j < i; j++) {
+            if (__ids[j] == __ids[i]) {
+                return true;
+            }
+        }
+        return false;
     }
 }
 
 class Master {
     private static final int _BROADCAST_ID = 0xFF;
+    private static final int __ACK_TIMEOUT = 100;
+    private static final long __POLL_NANOS = 10_000_000L;
+    private static final int __MOVE_PRELOAD_BYTES = 2 + 2 + 3 * 5;
     private static final String __RELEASE_URL = "https://api.github.com/repos/Acrome-Smart-Motor-Driver/SMD-Red-Firmware/releases/{version}";
 
-    private List<Integer> __attached_drivers;
-    private List<Red> __driver_list;
+    private final List<Integer> __attached_drivers = new ArrayList<>();
+    private final Red[] __drivers = new Red[256];
     private int __baudrate;
-    private double __post_sleep;
-    private SerialPort __ph;
+    private long __byteNanos;
+    private long __busIdleAt = 0;
+    private final BusTransport __transport;
+    private final FrameDecoder __decoder = new FrameDecoder();
+    private final int[] __single = new int[1];
+    private final int[] __ackId = new int[1];
+    private final long[] __replied = new long[256];
+    private long __transaction = 0;
+    private long __cacheHits = 0;
+    private long __cacheMisses = 0;
+    private PositionPoller __poller = null;
+    private final BusMetrics __metrics = new BusMetrics();
+    private final BusStats __stats = new BusStats();
+    private int __requestCommand = 0;
+    private int __requestBytes = 0;
+    private long __requestAt = 0;
+    private long __crcBase = 0;
+    private TransactionEvent __pendingEvent = null;
+    private int __attempt = 0;
 
     public Master(String portname, int baudrate) throws Exception {
+        this(new SerialTransport(portname, __checkBaudrate(baudrate)), baudrate);
+    }
+
+    /**
+     * Runs the bus over {@code transport}; {@code baudrate} is the wire rate used for frame timing.
+     */
+    public Master(BusTransport transport, int baudrate) {
+        __baudrate = __checkBaudrate(baudrate);
+        __byteNanos = Frame.BITS_PER_BYTE * 1_000_000_000L / baudrate;
+        __transport = transport;
+    }
+
+    private static int __checkBaudrate(int baudrate) {
         if (baudrate > 12500000 || baudrate < 3053) {
             throw new IllegalArgumentException("Baudrate must be between 3.053 KBits/s and 12.5 MBits/s.");
         }
+        return baudrate;
+    }
 
-        __attached_drivers = new ArrayList<>();
-        __driver_list = new ArrayList<>(256);
-        for (int i = 0; i < 256; i++) {
-            __driver_list.add(new Red(255));
+    public void close() throws IOException {
+        PositionPoller poller;
+        synchronized (this) {
+            poller = __poller;
+            __poller = null;
         }
-
-        __baudrate = baudrate;
-        __post_sleep = (10.0 / baudrate) * 12;
-        __ph = SerialPort.getCommPort(portname);
-        __ph.setBaudRate(__baudrate);
-        __ph.setComPortTimeouts(SerialPort.TIMEOUT_READ_BLOCKING, 100, 0);
-        __ph.openPort();
+        if (poller != null) {
+            try {
+                poller.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        __commitTransaction();
+        __transport.close();
     }
 
     @Override
     protected void finalize() throws Throwable {
         try {
-            __ph.closePort();
+            close();
         } finally {
             super.finalize();
         }
     }
 
-    private void __writeBus(byte[] data) {
-        __ph.writeBytes(data, data.length);
+    /**
+     * Writes a frame once the bus is idle and books the wire time it occupies.
+     * <p>
+     * The bus is considered busy until the last byte has left the adapter plus the
+     * inter-frame gap the drivers need, so no frame needs a sleep after it.
+     */
+    private void __writeBus(ByteBuffer frame) throws IOException {
+        TransactionEvent event = null;
+        long waitFrom = 0;
+        if (TransactionEvent.PROBE.isEnabled()) {
+            __commitTransaction();
+            event = new TransactionEvent();
+            event.begin();
+            waitFrom = System.nanoTime();
+        }
+
+        LoopRunner.awaitDeadline(__busIdleAt);
+        __transport.write(frame.array(), frame.arrayOffset(), frame.limit());
+        __requestAt = System.nanoTime();
+        __requestCommand = frame.get(Index.Command.ordinal()) & 0xFF;
+        __requestBytes = frame.limit();
+        __busIdleAt = __requestAt + (frame.limit() + Frame.GAP_BYTES) * __byteNanos;
+        int payload = Frame.payloadBytes(frame);
+        __stats.frame(__requestAt, payload, frame.limit() - payload, __byteNanos);
+
+        if (event != null) {
+            Commands command = Commands.of(__requestCommand);
+            event.bus = __transport.name();
+            event.driverId = frame.get(Index.DeviceID.ordinal()) & 0xFF;
+            event.command = command != null ? command.name() : String.valueOf(__requestCommand);
+            event.bytesWritten = frame.limit();
+            event.busWait = __requestAt - waitFrom;
+            event.result = "sent";
+            event.retries = __attempt;
+            event.end();
+            __pendingEvent = event;
+        }
     }
 
-    private byte[] __readBus(int size) {
-        byte[] buffer = new byte[size];
-        __ph.readBytes(buffer, buffer.length);
-        return buffer;
+    /**
+     * Commits the event of the last transaction. Write-only transactions are committed
+     * when the next one starts, since only then is it known that no reply was awaited.
+     */
+    private void __commitTransaction() {
+        if (__pendingEvent != null) {
+            __pendingEvent.commit();
+            __pendingEvent = null;
+        }
+    }
+
+    /**
+     * Waits for the reply of {@code id} and decodes it into its driver.
+     */
+    private boolean __readAck(int id) throws IOException {
+        __ackId[0] = id;
+        return __awaitReplies(__ackId, 1, __drivers[id].getAckSize()) == 1;
+    }
+
+    /**
+     * Waits until each of the first {@code count} IDs has replied, decoding every
+     * reply into its driver as it arrives.
+     * <p>
+     * Replies from other attached drivers that are still in flight are decoded as
+     * well; anything else on the line is skipped by the decoder.
+     * <p>
+     * The thread waits until the transport signals new data, so a transaction completes as
+     * soon as the last reply byte arrives. The deadline is the wire time of the request
+     * and of {@code replySize} reply bytes, plus the driver turnaround allowance.
+     *
+     * @return the number of listed drivers that replied before the deadline
+     */
+    private int __awaitReplies(int[] ids, int count, int replySize) throws IOException {
+        long transaction = ++__transaction;
+        int replied = 0;
+        int bytesRead = 0;
+        long deadline = __busIdleAt + replySize * __byteNanos + __ACK_TIMEOUT * 1_000_000L;
+        while (true) {
+            int from;
+            while ((from = __decoder.poll()) >= 0) {
+                Red driver = __drivers[from];
+                int payload = 0;
+                if (driver != null) {
+                    payload = __decoder.decodeInto(driver);
+                    if (__replied[from] != transaction && __listed(ids, count, from)) {
+                        __metrics.record(__requestCommand, from, System.nanoTime() - __requestAt);
+                    }
+                    __replied[from] = transaction;
+                }
+                __stats.frame(System.nanoTime(), payload, __decoder.size() - payload, __byteNanos);
+                __decoder.consume();
+            }
+            replied = 0;
+            for (int i = 0; i < count; i++) {
+                if (__replied[ids[i]] == transaction) {
+                    replied++;
+                }
+            }
+            if (replied == count) {
+                break;
+            }
+
+            int n = __decoder.readFrom(__transport);
+            if (n < 0) {
+                break;
+            }
+            bytesRead += n;
+            if (n == 0 && !__transport.awaitData(deadline)) {
+                break;
+            }
+        }
+        long now = System.nanoTime();
+        __stats.turnaround(now, now - __requestAt - (__requestBytes + bytesRead) * __byteNanos);
+        __busIdleAt = Math.max(__busIdleAt, now + Frame.GAP_BYTES * __byteNanos);
+        if (replied < count) {
+            for (int i = 0; i < count; i++) {
+                if (__replied[ids[i]] != transaction) {
+                    __metrics.timeout(__requestCommand, ids[i]);
+                }
+            }
+        }
+        if (__pendingEvent != null) {
+            __pendingEvent.bytesRead = bytesRead;
+            __pendingEvent.replyWait = System.nanoTime() - __requestAt;
+            __pendingEvent.result = replied == count ? "ok" : "timeout";
+            __pendingEvent.end();
+            __commitTransaction();
+        }
+        return replied;
+    }
+
+    private static boolean __listed(int[] ids, int count, int id) {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a snapshot of the round-trip latencies, timeouts and CRC errors so far.
+     */
+    public synchronized BusMetrics metrics() {
+        __metrics.crcErrors(__decoder.crcErrors() - __crcBase);
+        return __metrics.snapshot();
+    }
+
+    public synchronized void resetMetrics() {
+        __metrics.reset();
+        __stats.reset();
+        __crcBase = __decoder.crcErrors();
+    }
+
+    /**
+     * Returns how the wire time of the last second was split between payload, protocol
+     * overhead, reply turnaround and idle, and the frames per second.
+     */
+    public BusStats busStats() {
+        return __stats.snapshot();
     }
 
     public List<Integer> attached() {
@@ -542,7 +1346,7 @@ class Master {
         return json.getString("tag_name");
     }
 
-    public boolean updateFwVersion(int id, String version) throws Exception {
+    public synchronized boolean updateFwVersion(int id, String version) throws Exception {
         File fwFile = File.createTempFile("fw", ".bin");
 
         if (version.isEmpty()) {
@@ -551,6 +1355,7 @@ class Master {
             version = "tags/" + version;
         }
 
+        PhaseEvent phase = PhaseEvent.begin("updateFwVersion", "release", id);
         URL url = new URL(__RELEASE_URL.replace("{version}", version));
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
         connection.setRequestMethod("GET");
@@ -580,12 +1385,16 @@ class Master {
         if (fwDlUrl == null || md5DlUrl == null) {
             throw new Exception("Could not find requested firmware file! Check your connection to GitHub.");
         }
+        PhaseEvent.commit(phase);
 
+        phase = PhaseEvent.begin("updateFwVersion", "download", id);
         URL fwUrl = new URL(fwDlUrl);
         connection = (HttpURLConnection) fwUrl.openConnection();
         connection.setRequestMethod("GET");
         Files.copy(connection.getInputStream(), Paths.get(fwFile.getAbsolutePath()), StandardCopyOption.REPLACE_EXISTING);
+        PhaseEvent.commit(phase);
 
+        phase = PhaseEvent.begin("updateFwVersion", "verify", id);
         MessageDigest md5Digest = MessageDigest.getInstance("MD5");
         byte[] md5Bytes = Files.readAllBytes(Paths.get(fwFile.getAbsolutePath()));
         String md5Fw = new String(md5Digest.digest(md5Bytes));
@@ -600,92 +1409,130 @@ class Master {
         if (!md5Fw.equals(md5Retrieved)) {
             throw new Exception("MD5 Mismatch!");
         }
+        PhaseEvent.commit(phase);
 
+        phase = PhaseEvent.begin("updateFwVersion", "bootloader", id);
         enterBootloader(id);
         Thread.sleep(100);
+        PhaseEvent.commit(phase);
 
         // Upload binary
-        stm32loader_main("-p", __ph.getSystemPortName(), "-b", "115200", "-e", "-w", "-v", fwFile.getAbsolutePath());
+        phase = PhaseEvent.begin("updateFwVersion", "upload", id);
+        stm32loader_main("-p", __transport.name(), "-b", "115200", "-e", "-w", "-v", fwFile.getAbsolutePath());
+        PhaseEvent.commit(phase);
 
         fwFile.delete();
 
         return true;
     }
 
-    public void updateDriverBaudrate(int id, int br) throws Exception {
+    public synchronized void updateDriverBaudrate(int id, int br) throws Exception {
         if (br < 3053 || br > 12500000) {
             throw new IllegalArgumentException(br + " is not in acceptable range!");
         }
 
         setVariables(id, List.of(new Object[]{Index.Baudrate.ordinal(), br}), false);
-        Thread.sleep((long) __post_sleep);
         eepromWrite(id, false);
-        Thread.sleep((long) __post_sleep);
         reboot(id);
     }
 
-    public int getDriverBaudrate(int id) throws Exception {
-        return (int) getVariables(id, List.of(Index.Baudrate.ordinal())).get(0);
+    public synchronized int getDriverBaudrate(int id) throws Exception {
+        return __read(id, Index.Baudrate).getInt(Index.Baudrate);
     }
 
-    public void updateMasterBaudrate(int br) throws Exception {
+    public synchronized void updateMasterBaudrate(int br) throws Exception {
         if (br < 3053 || br > 12500000) {
             throw new IllegalArgumentException(br + " is not in acceptable range!");
         }
 
-        __ph.closePort();
-        __ph.setBaudRate(br);
-        __ph.openPort();
+        __transport.setBaudrate(br);
 
-        __post_sleep = (10.0 / br) * 12;
+        __baudrate = br;
+        __byteNanos = Frame.BITS_PER_BYTE * 1_000_000_000L / br;
+    }
+
+    public synchronized void attach(Red driver) {
+        if (__drivers[driver.getId()] == null) {
+            __attached_drivers.add(driver.getId());
+        }
+        __drivers[driver.getId()] = driver;
+    }
+
+    public synchronized void detach(int id) {
+        if (id < 0 || id > 255) {
+            throw new IllegalArgumentException(id + " is not a valid ID!");
+        }
+        if (__drivers[id] != null) {
+            __attached_drivers.remove(Integer.valueOf(id));
+        }
+        __drivers[id] = null;
     }
 
-    public void attach(Red driver) {
-        __driver_list.set(driver.vars.get(Index.DeviceID.ordinal()).getValue(), driver);
+    Red driver(int id) {
+        return __driver(id);
     }
 
-    public void detach(int id) {
+    /**
+     * Returns the attached driver for {@code id}.
+     */
+    private Red __driver(int id) {
         if (id < 0 || id > 255) {
             throw new IllegalArgumentException(id + " is not a valid ID!");
         }
-        __driver_list.set(id, new Red(255));
+        if (__drivers[id] == null) {
+            throw new IllegalArgumentException(id + " is not an attached ID!");
+        }
+        return __drivers[id];
     }
 
-    public List<Object> setVariables(int id, List<Object[]> idxValPairs, boolean ack) throws Exception {
+    /**
+     * Writes the first {@code count} index/value pairs to {@code id} with one WRITE (or WRITE_ACK) frame.
+     *
+     * @return true if the frame was written and, with {@code ack}, acknowledged in time
+     */
+    public synchronized boolean setVariables(int id, int[] indexList, double[] valueList, int count, boolean ack) throws Exception {
         if (id < 0 || id > 255) {
             throw new IllegalArgumentException(id + " is not a valid ID!");
         }
 
-        if (id != __driver_list.get(id).vars.get(Index.DeviceID.ordinal()).getValue()) {
+        if (__drivers[id] == null) {
             throw new IllegalArgumentException(id + " is not an attached ID!");
         }
 
-        if (idxValPairs.isEmpty()) {
+        if (count == 0) {
             throw new IndexOutOfBoundsException("Given id, value pair list is empty!");
         }
 
-        List<Integer> indexList = new ArrayList<>();
-        List<Object> valueList = new ArrayList<>();
-        for (Object[] pair : idxValPairs) {
-            indexList.add((Integer) pair[0]);
-            valueList.add(pair[1]);
+        ByteBuffer frame = Frame.buffer();
+        __drivers[id].setVariables(frame, indexList, valueList, count, ack);
+        __writeBus(frame);
+        return !ack || __readAck(id);
+    }
+
+    public synchronized List<Object> setVariables(int id, List<Object[]> idxValPairs, boolean ack) throws Exception {
+        int[] indexList = new int[idxValPairs.size()];
+        double[] valueList = new double[idxValPairs.size()];
+        for (int i = 0; i < indexList.length; i++) {
+            indexList[i] = (Integer) idxValPairs.get(i)[0];
+            valueList[i] = ((Number) idxValPairs.get(i)[1]).doubleValue();
         }
 
-        __writeBus(__driver_list.get(id).setVariables(indexList, valueList, ack));
-        if (ack) {
-            if (__readAck(id)) {
-                List<Object> writtenValues = new ArrayList<>();
-                for (int index : indexList) {
-                    writtenValues.add(__driver_list.get(id).vars.get(index).getValue());
-                }
-                return writtenValues;
+        if (setVariables(id, indexList, valueList, indexList.length, ack) && ack) {
+            List<Object> writtenValues = new ArrayList<>();
+            for (int index : indexList) {
+                writtenValues.add(__driver(id).value(index));
             }
+            return writtenValues;
         }
-        Thread.sleep((long) __post_sleep);
         return null;
     }
 
-    public List<Object> getVariables(int id, List<Integer> indexList) throws Exception {
+    /**
+     * Reads the first {@code count} indexes of {@code id} into its register file.
+     *
+     * @return true if the driver replied in time
+     */
+    public synchronized boolean getVariables(int id, int[] indexList, int count) throws Exception {
         if (id < 0 || id > 254) {
             throw new IllegalArgumentException(id + " is not a valid ID!");
         }
@@ -694,39 +1541,161 @@ class Master {
             throw new IllegalArgumentException("Can't read with broadcast ID!");
         }
 
-        if (id != __driver_list.get(id).vars.get(Index.DeviceID.ordinal()).getValue()) {
+        if (__drivers[id] == null) {
             throw new IllegalArgumentException(id + " is not an attached ID!");
         }
 
-        if (indexList.isEmpty()) {
+        if (count == 0) {
             throw new IndexOutOfBoundsException("Given index list is empty!");
         }
 
-        __writeBus(__driver_list.get(id).getVariables(indexList));
-        Thread.sleep((long) __post_sleep);
-        if (__readAck(id)) {
+        ByteBuffer frame = Frame.buffer();
+        __driver(id).getVariables(frame, indexList, count);
+        __writeBus(frame);
+        return __readAck(id);
+    }
+
+    /**
+     * Sets {@code index} to {@code values[i]} on each driver {@code ids[i]} with a single
+     * broadcast SYNC_WRITE frame, so every driver receives its setpoint at the same instant.
+     */
+    public synchronized void syncWrite(Index index, int[] ids, float[] values) throws Exception {
+        if (ids.length != values.length) {
+            throw new IllegalArgumentException("ID and value lists must have the same length!");
+        }
+        for (int i = 0; i < ids.length; i++) {
+            __driver(ids[i]).set(index, values[i]);
+        }
+        syncWrite(index, ids);
+    }
+
+    public synchronized void syncWrite(Index index, int[] ids, int[] values) throws Exception {
+        if (ids.length != values.length) {
+            throw new IllegalArgumentException("ID and value lists must have the same length!");
+        }
+        for (int i = 0; i < ids.length; i++) {
+            __driver(ids[i]).set(index, values[i]);
+        }
+        syncWrite(index, ids);
+    }
+
+    /**
+     * Sends a SYNC_WRITE of {@code index} with the values already in the drivers' registers.
+     */
+    synchronized void syncWrite(Index index, int[] ids) throws Exception {
+        if (ids.length == 0) {
+            throw new IndexOutOfBoundsException("Given ID list is empty!");
+        }
+
+        ByteBuffer frame = Frame.buffer();
+        Red.syncWrite(frame, index.ordinal(), __drivers, ids, ids.length);
+        __writeBus(frame);
+    }
+
+    /**
+     * Reads different registers from several drivers with one BULK_READ frame and
+     * decodes every reply into the drivers' register files.
+     *
+     * @return true if every listed driver replied in time
+     */
+    public synchronized boolean bulkRead(Map<Integer, Index[]> request) throws Exception {
+        return bulkRead(new BulkRead(request));
+    }
+
+    public synchronized boolean bulkRead(BulkRead request) throws Exception {
+        int[] ids = request.ids();
+        for (int id : ids) {
+            __driver(id);
+        }
+
+        __writeBus(request.frame());
+        return __awaitReplies(ids, ids.length, request.replySize()) == ids.length;
+    }
+
+    /**
+     * Returns a builder that packs setpoints for several drivers into one BULK_WRITE frame.
+     */
+    public BulkWrite bulkWrite() {
+        return new BulkWrite(this);
+    }
+
+    /**
+     * Returns an empty process image for cyclic exchange with the attached drivers.
+     */
+    public ProcessImage processImage() {
+        return new ProcessImage(this);
+    }
+
+    public synchronized void bulkWrite(BulkWrite request) throws Exception {
+        ByteBuffer frame = Frame.buffer();
+        request.encode(frame);
+        __writeBus(frame);
+    }
+
+    public synchronized List<Object> getVariables(int id, List<Integer> indexList) throws Exception {
+        int[] indexes = indexList.stream().mapToInt(Integer::intValue).toArray();
+        if (getVariables(id, indexes, indexes.length)) {
             List<Object> readValues = new ArrayList<>();
-            for (int index : indexList) {
-                readValues.add(__driver_list.get(id).vars.get(index).getValue());
+            for (int index : indexes) {
+                readValues.add(__driver(id).value(index));
             }
             return readValues;
         }
         return null;
     }
 
-    public void reboot(int id) throws Exception {
-        __writeBus(__driver_list.get(id).reboot());
-        Thread.sleep((long) __post_sleep);
+    /**
+     * Reads a single register and returns the driver holding the fresh value.
+     */
+    private Red __read(int id, Index index) throws Exception {
+        __single[0] = index.ordinal();
+        if (!getVariables(id, __single, 1)) {
+            throw new Exception(id + " did not respond to " + index + " read!");
+        }
+        return __driver(id);
+    }
+
+    /**
+     * Returns the driver without touching the bus if {@code index} arrived in any reply
+     * within {@code maxAge}, reading it otherwise.
+     */
+    private Red __read(int id, Index index, Duration maxAge) throws Exception {
+        Red driver = __driver(id);
+        if (driver.isFresh(index.ordinal(), maxAge.toNanos())) {
+            __cacheHits++;
+            return driver;
+        }
+        __cacheMisses++;
+        return __read(id, index);
     }
 
-    public void factoryReset(int id) throws Exception {
-        __writeBus(__driver_list.get(id).factoryReset());
-        Thread.sleep((long) __post_sleep);
+    /**
+     * Returns the number of max-age reads served from the register file.
+     */
+    public synchronized long cacheHits() {
+        return __cacheHits;
     }
 
-    public void eepromWrite(int id, boolean ack) throws Exception {
-        __writeBus(__driver_list.get(id).EEPROMWrite(ack));
-        Thread.sleep((long) __post_sleep);
+    /**
+     * Returns the number of max-age reads that had to go to the bus.
+     */
+    public synchronized long cacheMisses() {
+        return __cacheMisses;
+    }
+
+    public synchronized void reboot(int id) throws Exception {
+        __driver(id).reboot(Frame.buffer());
+        __writeBus(Frame.buffer());
+    }
+
+    public synchronized void factoryReset(int id) throws Exception {
+        __driver(id).factoryReset(Frame.buffer());
+        __writeBus(Frame.buffer());
+    }
+
+    public synchronized void eepromWrite(int id, boolean ack) throws Exception {
+        __driver(id).EEPROMWrite(Frame.buffer(), ack);
+        __writeBus(Frame.buffer());
 
         if (ack) {
             if (!__readAck(id)) {
@@ -735,18 +1704,18 @@ class Master {
         }
     }
 
-    public boolean ping(int id) throws Exception {
-        __writeBus(__driver_list.get(id).ping());
-        Thread.sleep((long) __post_sleep);
+    public synchronized boolean ping(int id) throws Exception {
+        __driver(id).ping(Frame.buffer());
+        __writeBus(Frame.buffer());
         return __readAck(id);
     }
 
-    public void resetEncoder(int id) throws Exception {
-        __writeBus(__driver_list.get(id).resetEncoder());
-        Thread.sleep((long) __post_sleep);
+    public synchronized void resetEncoder(int id) throws Exception {
+        __driver(id).resetEncoder(Frame.buffer());
+        __writeBus(Frame.buffer());
     }
 
-    public List<String> scanModules(int id) throws Exception {
+    public synchronized List<String> scanModules(int id) throws Exception {
         List<Integer> _ID_OFFSETS = List.of(
             List.of(1, Index.Button_1.ordinal()),
             List.of(6, Index.Light_1.ordinal()),
@@ -760,17 +1729,24 @@ class Master {
             List.of(46, Index.IMU_1.ordinal())
         );
 
-        __writeBus(__driver_list.get(id).scanModules());
+        PhaseEvent phase = PhaseEvent.begin("scanModules", "scan", id);
+        __driver(id).scanModules(Frame.buffer());
+        __writeBus(Frame.buffer());
         Thread.sleep(5500);
+        PhaseEvent.commit(phase);
 
+        phase = PhaseEvent.begin("scanModules", "read", id);
         long connected = 0;
         for (int i = 0; i < 10; i++) {
-            List<Integer> values = getVariables(id, List.of(Index.connected_bitfield.ordinal()));
-            if (values != null) {
-                connected = ((long) values.get(1) << 32) | values.get(0);
+            __attempt = i;
+            __single[0] = Index.connected_bitfield.ordinal();
+            if (getVariables(id, __single, 1)) {
+                connected = __driver(id).getU32(Index.connected_bitfield);
                 break;
             }
         }
+        __attempt = 0;
+        PhaseEvent.commit(phase);
 
         if (connected == 0) {
             return null;
@@ -785,7 +1761,7 @@ class Master {
         return result;
     }
 
-    public void setConnectedModules(int id, List<String> modules) throws Exception {
+    public synchronized void setConnectedModules(int id, List<String> modules) throws Exception {
         List<String> filteredModules = new ArrayList<>(new HashSet<>(modules));
 
         int ManualBuzzer_Byte = 0;
@@ -858,29 +1834,29 @@ class Master {
         setVariables(id, List.of(new Object[]{Index.SetManualPot.ordinal(), ManualPot_Byte}), false);
         setVariables(id, List.of(new Object[]{Index.SetManualIMU.ordinal(), ManualIMU_Byte}), false);
 
-        __writeBus(__driver_list.get(id).scanModules());
-        Thread.sleep((long) __post_sleep);
+        __driver(id).scanModules(Frame.buffer());
+        __writeBus(Frame.buffer());
     }
 
-    public void enterBootloader(int id) throws Exception {
-        __writeBus(__driver_list.get(id).enterBootloader());
-        Thread.sleep((long) __post_sleep);
+    public synchronized void enterBootloader(int id) throws Exception {
+        __driver(id).enterBootloader(Frame.buffer());
+        __writeBus(Frame.buffer());
     }
 
-    public Map<String, String> getDriverInfo(int id) throws Exception {
+    public synchronized Map<String, String> getDriverInfo(int id) throws Exception {
         Map<String, String> st = new HashMap<>();
         List<Object> data = getVariables(id, List.of(Index.HardwareVersion.ordinal(), Index.SoftwareVersion.ordinal()));
         if (data != null) {
             st.put("HardwareVersion", String.format("v%d.%d.%d", ((int) data.get(0) >> 16) & 0xFF, ((int) data.get(0) >> 8) & 0xFF, (int) data.get(0) & 0xFF));
             st.put("SoftwareVersion", String.format("v%d.%d.%d", ((int) data.get(1) >> 16) & 0xFF, ((int) data.get(1) >> 8) & 0xFF, (int) data.get(1) & 0xFF));
 
-            __driver_list.get(id)._config = st;
+            __driver(id)._config = st;
             return st;
         }
         return null;
     }
 
-    public void updateDriverId(int id, int id_new) throws Exception {
+    public synchronized void updateDriverId(int id, int id_new) throws Exception {
         if (id < 0 || id > 254) {
             throw new IllegalArgumentException(id + " is not a valid ID!");
         }
@@ -889,118 +1865,210 @@ class Master {
             throw new IllegalArgumentException(id_new + " is not a valid ID argument!");
         }
 
-        __writeBus(__driver_list.get(id).updateDriverId(id_new));
-        Thread.sleep((long) __post_sleep);
+        __driver(id).updateDriverId(Frame.buffer(), id_new);
+        __writeBus(Frame.buffer());
         eepromWrite(id_new, false);
-        Thread.sleep((long) __post_sleep);
         reboot(id);
     }
 
-    public void enableTorque(int id, boolean en) throws Exception {
+    public synchronized void enableTorque(int id, boolean en) throws Exception {
         setVariables(id, List.of(new Object[]{Index.TorqueEnable.ordinal(), en ? 1 : 0}), false);
-        Thread.sleep((long) __post_sleep);
     }
 
-    public void pidTuner(int id) throws Exception {
-        __writeBus(__driver_list.get(id).tune());
-        Thread.sleep((long) __post_sleep);
+    public synchronized void pidTuner(int id) throws Exception {
+        __driver(id).tune(Frame.buffer());
+        __writeBus(Frame.buffer());
     }
 
-    public void setOperationMode(int id, OperationMode mode) throws Exception {
+    public synchronized void setOperationMode(int id, OperationMode mode) throws Exception {
         setVariables(id, List.of(new Object[]{Index.OperationMode.ordinal(), mode.ordinal()}), false);
-        Thread.sleep((long) __post_sleep);
     }
 
-    public int getOperationMode(int id) throws Exception {
-        return (int) getVariables(id, List.of(Index.OperationMode.ordinal())).get(0);
+    public synchronized int getOperationMode(int id) throws Exception {
+        return __read(id, Index.OperationMode).getU8(Index.OperationMode);
     }
 
-    public void setShaftCpr(int id, float cpr) throws Exception {
+    public synchronized void setShaftCpr(int id, float cpr) throws Exception {
         setVariables(id, List.of(new Object[]{Index.OutputShaftCPR.ordinal(), cpr}), false);
-        Thread.sleep((long) __post_sleep);
     }
 
-    public float getShaftCpr(int id) throws Exception {
-        return (float) getVariables(id, List.of(Index.OutputShaftCPR.ordinal())).get(0);
+    public synchronized float getShaftCpr(int id) throws Exception {
+        return __read(id, Index.OutputShaftCPR).getFloat(Index.OutputShaftCPR);
     }
 
-    public void setShaftRpm(int id, float rpm) throws Exception {
+    public synchronized void setShaftRpm(int id, float rpm) throws Exception {
         setVariables(id, List.of(new Object[]{Index.OutputShaftRPM.ordinal(), rpm}), false);
-        Thread.sleep((long) __post_sleep);
     }
 
-    public float getShaftRpm(int id) throws Exception {
-        return (float) getVariables(id, List.of(Index.OutputShaftRPM.ordinal())).get(0);
+    public synchronized float getShaftRpm(int id) throws Exception {
+        return __read(id, Index.OutputShaftRPM).getFloat(Index.OutputShaftRPM);
     }
 
-    public void setUserIndicator(int id) throws Exception {
+    public synchronized void setUserIndicator(int id) throws Exception {
         setVariables(id, List.of(new Object[]{Index.UserIndicator.ordinal(), 1}), false);
-        Thread.sleep((long) __post_sleep);
     }
 
-    public void setPositionLimits(int id, int plmin, int plmax) throws Exception {
+    public synchronized void setPositionLimits(int id, int plmin, int plmax) throws Exception {
         setVariables(id, List.of(new Object[]{Index.MinimumPositionLimit.ordinal(), plmin}, new Object[]{Index.MaximumPositionLimit.ordinal(), plmax}), false);
-        Thread.sleep((long) __post_sleep);
     }
 
-    public List<Object> getPositionLimits(int id) throws Exception {
+    public synchronized List<Object> getPositionLimits(int id) throws Exception {
         return getVariables(id, List.of(Index.MinimumPositionLimit.ordinal(), Index.MaximumPositionLimit.ordinal()));
     }
 
-    public void setTorqueLimit(int id, int tl) throws Exception {
+    public synchronized void setTorqueLimit(int id, int tl) throws Exception {
         setVariables(id, List.of(new Object[]{Index.TorqueLimit.ordinal(), tl}), false);
-        Thread.sleep((long) __post_sleep);
     }
 
-    public int getTorqueLimit(int id) throws Exception {
-        return (int) getVariables(id, List.of(Index.TorqueLimit.ordinal())).get(0);
+    public synchronized int getTorqueLimit(int id) throws Exception {
+        return __read(id, Index.TorqueLimit).getU16(Index.TorqueLimit);
     }
 
-    public void setVelocityLimit(int id, int vl) throws Exception {
+    public synchronized void setVelocityLimit(int id, int vl) throws Exception {
         setVariables(id, List.of(new Object[]{Index.VelocityLimit.ordinal(), vl}), false);
-        Thread.sleep((long) __post_sleep);
     }
 
-    public int getVelocityLimit(int id) throws Exception {
-        return (int) getVariables(id, List.of(Index.VelocityLimit.ordinal())).get(0);
+    public synchronized int getVelocityLimit(int id) throws Exception {
+        return __read(id, Index.VelocityLimit).getU16(Index.VelocityLimit);
     }
 
-    public void setPosition(int id, int sp) throws Exception {
+    public synchronized void setPosition(int id, int sp) throws Exception {
         setVariables(id, List.of(new Object[]{Index.PositionControlMode.ordinal(), 0}, new Object[]{Index.SetPosition.ordinal(), sp}), false);
-        Thread.sleep((long) __post_sleep);
     }
 
-    public int getPosition(int id) throws Exception {
-        return (int) getVariables(id, List.of(Index.PresentPosition.ordinal())).get(0);
+    public synchronized int getPosition(int id) throws Exception {
+        return (int) __read(id, Index.PresentPosition).getFloat(Index.PresentPosition);
+    }
+
+    /**
+     * Returns the position from the last reply that carried it if it is at most {@code maxAge} old.
+     */
+    public synchronized int getPosition(int id, Duration maxAge) throws Exception {
+        return (int) __read(id, Index.PresentPosition, maxAge).getFloat(Index.PresentPosition);
+    }
+
+    /**
+     * Starts an S-curve move of {@code id} to {@code targetPosition}.
+     * <p>
+     * The returned future completes with the position read once the axis is within
+     * {@code encoderTickCloseCounter} ticks of the target. Arrival is detected by the
+     * shared {@link #positionPoller()} on its own thread; like every bus operation of
+     * this Master its polls hold the Master's monitor, so the caller can keep using the
+     * Master meanwhile. With {@code blocking} the call also waits for the future.
+     */
+    public CompletableFuture<Integer> goTo(int id, int targetPosition, float time, float maxSpeed, float accel, boolean blocking, int encoderTickCloseCounter) throws Exception {
+        startGoTo(id, targetPosition, time, maxSpeed, accel);
+        return __arrival(id, targetPosition, blocking, encoderTickCloseCounter);
     }
 
-    public void goTo(int id, int targetPosition, float time, float maxSpeed, float accel, boolean blocking, int encoderTickCloseCounter) throws Exception {
+    /**
+     * Sends the S-curve parameters and setpoint of a {@link #goTo} without waiting for arrival.
+     */
+    synchronized void startGoTo(int id, int targetPosition, float time, float maxSpeed, float accel) throws Exception {
         setVariables(id, List.of(new Object[]{Index.PositionControlMode.ordinal(), 1}), false);
         setVariables(id, List.of(new Object[]{Index.SCurveTime.ordinal(), time}, new Object[]{Index.SCurveMaxVelocity.ordinal(), maxSpeed}, new Object[]{Index.ScurveAccel.ordinal(), accel}), false);
         setVariables(id, List.of(new Object[]{Index.SCurveSetpoint.ordinal(), targetPosition}), false);
-        Thread.sleep((long) __post_sleep);
+    }
 
-        while (blocking) {
-            if (Math.abs(targetPosition - getPosition(id)) <= encoderTickCloseCounter) {
-                break;
-            }
-        }
+    /**
+     * Starts a constant speed move of {@code id} to {@code targetPosition}; see {@link #goTo}.
+     */
+    public CompletableFuture<Integer> goToConstantSpeed(int id, int targetPosition, float speed, boolean blocking, int encoderTickCloseCounter) throws Exception {
+        startGoToConstantSpeed(id, targetPosition, speed);
+        return __arrival(id, targetPosition, blocking, encoderTickCloseCounter);
     }
 
-    public void goToConstantSpeed(int id, int targetPosition, float speed, boolean blocking, int encoderTickCloseCounter) throws Exception {
-        setVariables(id, List.of(new Object[]{Index.VelocityControlMode.ordinal(), 1}), false);
+    synchronized void startGoToConstantSpeed(int id, int targetPosition, float speed) throws Exception {
+        setVariables(id, List.of(new Object[]{Index.PositionControlMode.ordinal(), 1}), false);
         setVariables(id, List.of(new Object[]{Index.SCurveMaxVelocity.ordinal(), speed}, new Object[]{Index.ScurveAccel.ordinal(), MotorConstants.MAX_ACCEL}), false);
         setVariables(id, List.of(new Object[]{Index.SCurveSetpoint.ordinal(), targetPosition}), false);
-        Thread.sleep((long) __post_sleep);
+    }
 
-        while (blocking) {
-            if (Math.abs(targetPosition - getPosition(id)) <= encoderTickCloseCounter) {
-                break;
+    /**
+     * Starts a coordinated move of several axes.
+     * <p>
+     * Every axis's PositionControlMode and S-curve parameters are preloaded with BULK_WRITE
+     * frames, then all SCurveSetpoint values go out in one SYNC_WRITE frame, so the axes
+     * start together. For more axes than fit in one frame, the setpoints follow in
+     * back-to-back frames.
+     *
+     * @return a future that completes when every axis is within its tolerance
+     */
+    public CompletableFuture<Void> goToAll(Map<Integer, Move> moves) throws Exception {
+        startGoToAll(moves);
+
+        PositionPoller poller = positionPoller();
+        CompletableFuture<?>[] arrivals = new CompletableFuture<?>[moves.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Move> entry : moves.entrySet()) {
+            arrivals[i++] = poller.await(entry.getKey(), entry.getValue().target, entry.getValue().tolerance);
+        }
+        return CompletableFuture.allOf(arrivals);
+    }
+
+    /**
+     * Sends the preload and setpoint frames of a {@link #goToAll} without waiting for arrival.
+     */
+    synchronized void startGoToAll(Map<Integer, Move> moves) throws Exception {
+        if (moves.isEmpty()) {
+            throw new IndexOutOfBoundsException("Given move list is empty!");
+        }
+
+        int[] ids = new int[moves.size()];
+        BulkWrite preload = bulkWrite();
+        int size = Frame.HEADER_SIZE + Frame.CRC_SIZE;
+        int i = 0;
+        for (Map.Entry<Integer, Move> entry : moves.entrySet()) {
+            int id = entry.getKey();
+            Move move = entry.getValue();
+            __driver(id);
+            if (size + __MOVE_PRELOAD_BYTES > Frame.MAX_SIZE) {
+                preload.send();
+                preload.clear();
+                size = Frame.HEADER_SIZE + Frame.CRC_SIZE;
             }
+            preload.set(id, Index.PositionControlMode, 1)
+                .set(id, Index.SCurveTime, move.time)
+                .set(id, Index.SCurveMaxVelocity, move.maxSpeed)
+                .set(id, Index.ScurveAccel, move.accel);
+            size += __MOVE_PRELOAD_BYTES;
+            __driver(id).set(Index.SCurveSetpoint, (float) move.target);
+            ids[i++] = id;
+        }
+        preload.send();
+
+        int perFrame = (Frame.MAX_SIZE - Frame.HEADER_SIZE - Frame.CRC_SIZE - 1) / (1 + Registers.size(Index.SCurveSetpoint.ordinal()));
+        for (int from = 0; from < ids.length; from += perFrame) {
+            syncWrite(Index.SCurveSetpoint, Arrays.copyOfRange(ids, from, Math.min(ids.length, from + perFrame)));
         }
     }
 
-    public void setVelocity(int id, float sp, float accel) throws Exception {
+    private CompletableFuture<Integer> __arrival(int id, int targetPosition, boolean blocking, int encoderTickCloseCounter) throws Exception {
+        CompletableFuture<Integer> arrived = positionPoller().await(id, targetPosition, encoderTickCloseCounter);
+        if (blocking) {
+            arrived.get();
+        }
+        return arrived;
+    }
+
+    /**
+     * Returns an empty trajectory player that sends one point per {@code periodNanos}.
+     */
+    public TrajectoryPlayer trajectory(long periodNanos) {
+        return new TrajectoryPlayer(this, periodNanos);
+    }
+
+    /**
+     * Returns the poller that completes move futures, started on first use.
+     */
+    public synchronized PositionPoller positionPoller() {
+        if (__poller == null) {
+            __poller = new PositionPoller(this, __POLL_NANOS);
+        }
+        return __poller;
+    }
+
+    public synchronized void setVelocity(int id, float sp, float accel) throws Exception {
         if (accel == MotorConstants.MAX_ACCEL) {
             accel = 0;
             setVariables(id, List.of(new Object[]{Index.SetVelocityAcceleration.ordinal(), accel}), false);
@@ -1011,32 +2079,37 @@ class Master {
             setVariables(id, List.of(new Object[]{Index.SetVelocityAcceleration.ordinal(), accel}), false);
             setVariables(id, List.of(new Object[]{Index.SetVelocity.ordinal(), sp}), false);
         }
-        Thread.sleep((long) __post_sleep);
     }
 
-    public float getVelocity(int id) throws Exception {
-        return (float) getVariables(id, List.of(Index.PresentVelocity.ordinal())).get(0);
+    public synchronized float getVelocity(int id) throws Exception {
+        return __read(id, Index.PresentVelocity).getFloat(Index.PresentVelocity);
+    }
+
+    public synchronized float getVelocity(int id, Duration maxAge) throws Exception {
+        return __read(id, Index.PresentVelocity, maxAge).getFloat(Index.PresentVelocity);
     }
 
-    public void setTorque(int id, float sp) throws Exception {
+    public synchronized void setTorque(int id, float sp) throws Exception {
         setVariables(id, List.of(new Object[]{Index.SetTorque.ordinal(), sp}), false);
-        Thread.sleep((long) __post_sleep);
     }
 
-    public float getTorque(int id) throws Exception {
-        return (float) getVariables(id, List.of(Index.MotorCurrent.ordinal())).get(0);
+    public synchronized float getTorque(int id) throws Exception {
+        return __read(id, Index.MotorCurrent).getFloat(Index.MotorCurrent);
+    }
+
+    public synchronized float getTorque(int id, Duration maxAge) throws Exception {
+        return __read(id, Index.MotorCurrent, maxAge).getFloat(Index.MotorCurrent);
     }
 
-    public void setDutyCycle(int id, float pct) throws Exception {
+    public synchronized void setDutyCycle(int id, float pct) throws Exception {
         setVariables(id, List.of(new Object[]{Index.SetDutyCycle.ordinal(), pct}), false);
-        Thread.sleep((long) __post_sleep);
     }
 
-    public int getAnalogPort(int id) throws Exception {
-        return (int) getVariables(id, List.of(Index.AnalogPort.ordinal())).get(0);
+    public synchronized int getAnalogPort(int id) throws Exception {
+        return __read(id, Index.AnalogPort).getU16(Index.AnalogPort);
     }
 
-    public void setControlParametersPosition(int id, Float p, Float i, Float d, Float db, Float ff, Float ol) throws Exception {
+    public synchronized void setControlParametersPosition(int id, Float p, Float i, Float d, Float db, Float ff, Float ol) throws Exception {
         List<Integer> indexList = List.of(Index.PositionPGain.ordinal(), Index.PositionIGain.ordinal(), Index.PositionDGain.ordinal(), Index.PositionDeadband.ordinal(), Index.PositionFF.ordinal(), Index.PositionOutputLimit.ordinal());
         List<Float> valList = List.of(p, i, d, db, ff, ol);
 
@@ -1048,14 +2121,13 @@ class Master {
         }
 
         setVariables(id, params, false);
-        Thread.sleep((long) __post_sleep);
     }
 
-    public List<Object> getControlParametersPosition(int id) throws Exception {
+    public synchronized List<Object> getControlParametersPosition(int id) throws Exception {
         return getVariables(id, List.of(Index.PositionPGain.ordinal(), Index.PositionIGain.ordinal(), Index.PositionDGain.ordinal(), Index.PositionDeadband.ordinal(), Index.PositionFF.ordinal(), Index.PositionOutputLimit.ordinal()));
     }
 
-    public void setControlParametersVelocity(int id, Float p, Float i, Float d, Float db, Float ff, Float ol) throws Exception {
+    public synchronized void setControlParametersVelocity(int id, Float p, Float i, Float d, Float db, Float ff, Float ol) throws Exception {
         List<Integer> indexList = List.of(Index.VelocityPGain.ordinal(), Index.VelocityIGain.ordinal(), Index.VelocityDGain.ordinal(), Index.VelocityDeadband.ordinal(), Index.VelocityFF.ordinal(), Index.VelocityOutputLimit.ordinal());
         List<Float> valList = List.of(p, i, d, db, ff, ol);
 
@@ -1067,14 +2139,13 @@ class Master {
         }
 
         setVariables(id, params, false);
-        Thread.sleep((long) __post_sleep);
     }
 
-    public List<Object> getControlParametersVelocity(int id) throws Exception {
+    public synchronized List<Object> getControlParametersVelocity(int id) throws Exception {
         return getVariables(id, List.of(Index.VelocityPGain.ordinal(), Index.VelocityIGain.ordinal(), Index.VelocityDGain.ordinal(), Index.VelocityDeadband.ordinal(), Index.VelocityFF.ordinal(), Index.VelocityOutputLimit.ordinal()));
     }
 
-    public void setControlParametersTorque(int id, Float p, Float i, Float d, Float db, Float ff, Float ol) throws Exception {
+    public synchronized void setControlParametersTorque(int id, Float p, Float i, Float d, Float db, Float ff, Float ol) throws Exception {
         List<Integer> indexList = List.of(Index.TorquePGain.ordinal(), Index.TorqueIGain.ordinal(), Index.TorqueDGain.ordinal(), Index.TorqueDeadband.ordinal(), Index.TorqueFF.ordinal(), Index.TorqueOutputLimit.ordinal());
         List<Float> valList = List.of(p, i, d, db, ff, ol);
 
@@ -1086,14 +2157,13 @@ class Master {
         }
 
         setVariables(id, params, false);
-        Thread.sleep((long) __post_sleep);
     }
 
-    public List<Object> getControlParametersTorque(int id) throws Exception {
+    public synchronized List<Object> getControlParametersTorque(int id) throws Exception {
         return getVariables(id, List.of(Index.TorquePGain.ordinal(), Index.TorqueIGain.ordinal(), Index.TorqueDGain.ordinal(), Index.TorqueDeadband.ordinal(), Index.TorqueFF.ordinal(), Index.TorqueOutputLimit.ordinal()));
     }
 
-    public int getButton(int id, int moduleId) throws Exception {
+    public synchronized int getButton(int id, int moduleId) throws Exception {
         int index = moduleId + Index.Button_1.ordinal() - 1;
         if (index < Index.Button_1.ordinal() || index > Index.Button_5.ordinal()) {
             throw new InvalidIndexError("Invalid index for button module");
@@ -1103,7 +2173,7 @@ class Master {
         return ret != null ? (int) ret.get(0) : 0;
     }
 
-    public int getLight(int id, int moduleId) throws Exception {
+    public synchronized int getLight(int id, int moduleId) throws Exception {
         int index = moduleId + Index.Light_1.ordinal() - 1;
         if (index < Index.Light_1.ordinal() || index > Index.Light_5.ordinal()) {
             throw new InvalidIndexError("Invalid index for light module");
@@ -1113,7 +2183,7 @@ class Master {
         return ret != null ? (int) ret.get(0) : 0;
     }
 
-    public void setBuzzer(int id, int moduleId, int noteFrequency) throws Exception {
+    public synchronized void setBuzzer(int id, int moduleId, int noteFrequency) throws Exception {
         if (noteFrequency < 0) {
             throw new InvalidIndexError("Note frequency cannot be negative!");
         }
@@ -1123,10 +2193,9 @@ class Master {
             throw new InvalidIndexError("Invalid index for buzzer module");
         }
         setVariables(id, List.of(new Object[]{index, noteFrequency}), false);
-        Thread.sleep((long) __post_sleep);
     }
 
-    public List<Object> getJoystick(int id, int moduleId) throws Exception {
+    public synchronized List<Object> getJoystick(int id, int moduleId) throws Exception {
         int index = moduleId + Index.Joystick_1.ordinal() - 1;
         if (index < Index.Joystick_1.ordinal() || index > Index.Joystick_5.ordinal()) {
             throw new InvalidIndexError("Invalid index for joystick module");
@@ -1136,7 +2205,7 @@ class Master {
         return ret != null ? (List<Object>) ret.get(0) : null;
     }
 
-    public int getDistance(int id, int moduleId) throws Exception {
+    public synchronized int getDistance(int id, int moduleId) throws Exception {
         int index = moduleId + Index.Distance_1.ordinal() - 1;
         if (index < Index.Distance_1.ordinal() || index > Index.Distance_5.ordinal()) {
             throw new InvalidIndexError("Invalid index for distance module");
@@ -1146,7 +2215,7 @@ class Master {
         return ret != null ? (int) ret.get(0) : 0;
     }
 
-    public List<Boolean> getQtr(int id, int moduleId) throws Exception {
+    public synchronized List<Boolean> getQtr(int id, int moduleId) throws Exception {
         int index = moduleId + Index.QTR_1.ordinal() - 1;
         if (index < Index.QTR_1.ordinal() || index > Index.QTR_5.ordinal()) {
             throw new InvalidIndexError("Invalid index for QTR module");
@@ -1163,7 +2232,7 @@ class Master {
         return null;
     }
 
-    public void setServo(int id, int moduleId, int val) throws Exception {
+    public synchronized void setServo(int id, int moduleId, int val) throws Exception {
         if (val < 0 || val > 255) {
             throw new IllegalArgumentException("Value should be in range [0, 255]");
         }
@@ -1174,10 +2243,9 @@ class Master {
         }
 
         setVariables(id, List.of(new Object[]{index, val}), false);
-        Thread.sleep((long) __post_sleep);
     }
 
-    public int getPotentiometer(int id, int moduleId) throws Exception {
+    public synchronized int getPotentiometer(int id, int moduleId) throws Exception {
         int index = moduleId + Index.Pot_1.ordinal() - 1;
         if (index < Index.Pot_1.ordinal() || index > Index.Pot_5.ordinal()) {
             throw new InvalidIndexError("Invalid index for potentiometer module");
@@ -1187,7 +2255,7 @@ class Master {
         return ret != null ? (int) ret.get(0) : 0;
     }
 
-    public void setRgb(int id, int moduleId, int red, int green, int blue) throws Exception {
+    public synchronized void setRgb(int id, int moduleId, int red, int green, int blue) throws Exception {
         if (red < 0 || red > 255 || green < 0 || green > 255 || blue < 0 || blue > 255) {
             throw new IllegalArgumentException("RGB color values must be in range 0 - 255");
         }
@@ -1200,10 +2268,9 @@ class Master {
         }
 
         setVariables(id, List.of(new Object[]{index, colorRgb}), false);
-        Thread.sleep((long) __post_sleep);
     }
 
-    public List<Object> getImu(int id, int moduleId) throws Exception {
+    public synchronized List<Object> getImu(int id, int moduleId) throws Exception {
         int index = moduleId + Index.IMU_1.ordinal() - 1;
         if (index < Index.IMU_1.ordinal() || index > Index.IMU_5.ordinal()) {
             throw new InvalidIndexError("Invalid index for IMU module");
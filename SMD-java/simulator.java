@@ -0,0 +1,390 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * One simulated SMD Red: a register file plus a simplified motor model.
+ * <p>
+ * Positions are in encoder ticks and velocities in ticks per second. The model
+ * tracks the setpoint of the active operation mode under the configured
+ * acceleration limit; it is meant to exercise the master, not to match a real motor.
+ */
+final class SimulatedRed {
+    private static final int __HARDWARE_VERSION = (1 << 16);
+    private static final int __SOFTWARE_VERSION = (1 << 16) | (1 << 8);
+    private static final double __DEFAULT_SPEED = 10000;
+    private static final double __POSITION_GAIN = 20;
+    private static final double __CURRENT_PER_ACCEL = 1e-5;
+    private static final int __PWM = 0;
+    private static final int __POSITION = 1;
+    private static final int __VELOCITY = 2;
+    private static final int __TORQUE = 3;
+
+    final Red registers;
+    private double __position = 0;
+    private double __velocity = 0;
+    private long __last;
+
+    SimulatedRed(int id, int baudrate) throws Exception {
+        registers = new Red(id);
+        registers.set(Index.HardwareVersion, __HARDWARE_VERSION);
+        registers.set(Index.SoftwareVersion, __SOFTWARE_VERSION);
+        registers.set(Index.Baudrate, baudrate);
+        __last = System.nanoTime();
+    }
+
+    void reset() {
+        __velocity = 0;
+        registers.set(Index.TorqueEnable, 0);
+        step(System.nanoTime());
+    }
+
+    void resetEncoder() {
+        __position = 0;
+        step(System.nanoTime());
+    }
+
+    /**
+     * Advances the motor to {@code now} and publishes PresentPosition, PresentVelocity and MotorCurrent.
+     */
+    void step(long now) {
+        double dt = (now - __last) / 1e9;
+        __last = now;
+        if (dt < 0) {
+            return;
+        }
+
+        double maxSpeed = __maxSpeed();
+        double accel = Double.POSITIVE_INFINITY;
+        double target = 0;
+        double setpoint = Double.NaN;
+        if (registers.getU8(Index.TorqueEnable) != 0) {
+            switch (registers.getU8(Index.OperationMode)) {
+                case __PWM:
+                    target = registers.getFloat(Index.SetDutyCycle) / 100.0 * maxSpeed;
+                    break;
+                case __POSITION:
+                    double vmax = maxSpeed;
+                    if (registers.getU8(Index.PositionControlMode) == 1) {
+                        setpoint = registers.getFloat(Index.SCurveSetpoint);
+                        if (registers.getFloat(Index.SCurveMaxVelocity) > 0) {
+                            vmax = registers.getFloat(Index.SCurveMaxVelocity);
+                        }
+                        if (registers.getFloat(Index.ScurveAccel) > 0) {
+                            accel = registers.getFloat(Index.ScurveAccel);
+                        }
+                    } else {
+                        setpoint = registers.getFloat(Index.SetPosition);
+                    }
+                    target = Math.max(-vmax, Math.min(vmax, (setpoint - __position) * __POSITION_GAIN));
+                    break;
+                case __VELOCITY:
+                    target = registers.getFloat(Index.SetVelocity);
+                    if (registers.getFloat(Index.SetVelocityAcceleration) > 0) {
+                        accel = registers.getFloat(Index.SetVelocityAcceleration);
+                    }
+                    break;
+                case __TORQUE:
+                    target = registers.getFloat(Index.SetTorque) / 100.0 * maxSpeed;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        double dv = Math.max(-accel * dt, Math.min(accel * dt, target - __velocity));
+        __velocity += dv;
+        double dx = __velocity * dt;
+        if (!Double.isNaN(setpoint) && Math.abs(dx) >= Math.abs(setpoint - __position) && Math.signum(dx) == Math.signum(setpoint - __position)) {
+            __position = setpoint;
+            __velocity = 0;
+        } else {
+            __position += dx;
+        }
+
+        registers.set(Index.PresentPosition, (float) __position);
+        registers.set(Index.PresentVelocity, (float) __velocity);
+        registers.set(Index.MotorCurrent, (float) (dt > 0 ? Math.abs(dv / dt) * __CURRENT_PER_ACCEL : 0));
+    }
+
+    private double __maxSpeed() {
+        double rpm = registers.getFloat(Index.OutputShaftRPM);
+        double cpr = registers.getFloat(Index.OutputShaftCPR);
+        return rpm > 0 && cpr > 0 ? rpm * cpr / 60.0 : __DEFAULT_SPEED;
+    }
+}
+
+/**
+ * Software SMD Red drivers behind a {@link BusTransport}.
+ * <p>
+ * Speaks the same frames as {@link Red}: PING, READ, WRITE, WRITE_ACK, EEPROM_WRITE,
+ * REBOOT, HARD_RESET, RESET_ENC, MODULE_SCAN and the SYNC_WRITE, BULK_WRITE and
+ * BULK_READ broadcast commands. Any number of IDs can be simulated from one thread,
+ * so master throughput and latency can be measured headlessly.
+ */
+class RedSimulator implements AutoCloseable {
+    private static final long __IDLE_NANOS = 100_000_000L;
+
+    private final BusTransport __bus;
+    private final int __baudrate;
+    private final FrameDecoder __decoder = new FrameDecoder();
+    private final SimulatedRed[] __drivers = new SimulatedRed[256];
+    private final ByteBuffer __out = ByteBuffer.allocate(Frame.MAX_SIZE);
+    private Thread __thread = null;
+    private volatile boolean __running = false;
+    private volatile long __modules = 0;
+    private long __frames = 0;
+    private long __replies = 0;
+
+    /**
+     * @param bus      the drivers' end of the transport
+     * @param baudrate the value reported in each driver's Baudrate register
+     */
+    RedSimulator(BusTransport bus, int baudrate) {
+        __bus = bus;
+        __baudrate = baudrate;
+    }
+
+    public synchronized RedSimulator addDriver(int id) throws Exception {
+        if (id < 0 || id > 254) {
+            throw new IllegalArgumentException(id + " is not a valid ID!");
+        }
+        __drivers[id] = new SimulatedRed(id, __baudrate);
+        return this;
+    }
+
+    /**
+     * Adds drivers {@code from} to {@code to}, inclusive.
+     */
+    public RedSimulator addDrivers(int from, int to) throws Exception {
+        for (int id = from; id <= to; id++) {
+            addDriver(id);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the connected_bitfield every driver reports after a MODULE_SCAN.
+     */
+    public void setConnectedModules(long bitfield) {
+        __modules = bitfield;
+    }
+
+    /**
+     * Returns the register file of simulated driver {@code id}.
+     */
+    public Red driver(int id) {
+        return __drivers[id].registers;
+    }
+
+    public synchronized long frames() {
+        return __frames;
+    }
+
+    public synchronized long replies() {
+        return __replies;
+    }
+
+    public synchronized RedSimulator start() {
+        if (__thread == null) {
+            __running = true;
+            __thread = new Thread(this::__run, "smd-simulator-" + __bus.name());
+            __thread.setDaemon(true);
+            __thread.start();
+        }
+        return this;
+    }
+
+    @Override
+    public void close() throws Exception {
+        __running = false;
+        if (__thread != null) {
+            __thread.join();
+        }
+        __bus.close();
+    }
+
+    private void __run() {
+        try {
+            while (__running) {
+                if (__decoder.readFrom(__bus) < 0) {
+                    return;
+                }
+                while (__decoder.poll() >= 0) {
+                    synchronized (this) {
+                        __frames++;
+                        __handle();
+                    }
+                    __decoder.consume();
+                }
+                __bus.awaitData(System.nanoTime() + __IDLE_NANOS);
+            }
+        } catch (IOException e) {
+            __running = false;
+        }
+    }
+
+    private void __handle() throws IOException {
+        int id = __decoder.byteAt(Index.DeviceID.ordinal());
+        int end = __decoder.size() - Frame.CRC_SIZE;
+        Commands command = Commands.of(__decoder.command());
+        if (command == null) {
+            return;
+        }
+
+        switch (command) {
+            case SYNC_WRITE:
+                __syncWrite(end);
+                return;
+            case BULK_WRITE:
+                __bulkWrite(end);
+                return;
+            case BULK_READ:
+                __bulkRead(end);
+                return;
+            default:
+                break;
+        }
+
+        if (id == Frame.BROADCAST_ID) {
+            for (SimulatedRed driver : __drivers) {
+                if (driver != null) {
+                    __unicast(driver, command, end);
+                }
+            }
+        } else if (__drivers[id] != null) {
+            __unicast(__drivers[id], command, end);
+        }
+    }
+
+    private void __unicast(SimulatedRed driver, Commands command, int end) throws IOException {
+        switch (command) {
+            case PING:
+            case EEPROM_WRITE_ACK:
+                __reply(driver, command, Frame.HEADER_SIZE, Frame.HEADER_SIZE);
+                break;
+            case READ:
+                __reply(driver, command, Frame.HEADER_SIZE, end);
+                break;
+            case WRITE:
+                __storePairs(driver, Frame.HEADER_SIZE, end, Integer.MAX_VALUE);
+                break;
+            case WRITE_ACK:
+                __storePairs(driver, Frame.HEADER_SIZE, end, Integer.MAX_VALUE);
+                __echo(driver, command, end);
+                break;
+            case REBOOT:
+            case HARD_RESET:
+                driver.reset();
+                break;
+            case RESET_ENC:
+                driver.resetEncoder();
+                break;
+            case MODULE_SCAN:
+                driver.registers.store(Index.connected_bitfield.ordinal(), (int) __modules);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Stores index/value pairs from {@code pos}, at most {@code pairs} of them.
+     *
+     * @return the position after the last pair read
+     */
+    private int __storePairs(SimulatedRed driver, int pos, int end, int pairs) {
+        for (int i = 0; i < pairs && pos < end; i++) {
+            int index = __decoder.byteAt(pos);
+            if (index >= Registers.count() || pos + 1 + Registers.size(index) > end) {
+                return end;
+            }
+            if (driver != null) {
+                driver.registers.store(index, __decoder.bitsAt(pos + 1, Registers.size(index)));
+            }
+            pos += 1 + Registers.size(index);
+        }
+        if (driver != null) {
+            driver.step(System.nanoTime());
+        }
+        return pos;
+    }
+
+    private void __syncWrite(int end) {
+        int index = __decoder.byteAt(Frame.HEADER_SIZE);
+        if (index >= Registers.count()) {
+            return;
+        }
+        int pos = Frame.HEADER_SIZE + 1;
+        while (pos + 1 + Registers.size(index) <= end) {
+            SimulatedRed driver = __drivers[__decoder.byteAt(pos)];
+            if (driver != null) {
+                driver.step(System.nanoTime());
+                driver.registers.store(index, __decoder.bitsAt(pos + 1, Registers.size(index)));
+            }
+            pos += 1 + Registers.size(index);
+        }
+    }
+
+    private void __bulkWrite(int end) {
+        int pos = Frame.HEADER_SIZE;
+        while (pos + 2 <= end) {
+            SimulatedRed driver = __drivers[__decoder.byteAt(pos)];
+            int pairs = __decoder.byteAt(pos + 1);
+            if (driver != null) {
+                driver.step(System.nanoTime());
+            }
+            pos = __storePairs(driver, pos + 2, end, pairs);
+        }
+    }
+
+    private void __bulkRead(int end) throws IOException {
+        int pos = Frame.HEADER_SIZE;
+        while (pos + 2 <= end) {
+            SimulatedRed driver = __drivers[__decoder.byteAt(pos)];
+            int count = __decoder.byteAt(pos + 1);
+            int last = Math.min(end, pos + 2 + count);
+            if (driver != null) {
+                __reply(driver, Commands.READ, pos + 2, last);
+            }
+            pos = last;
+        }
+    }
+
+    /**
+     * Replies with the values of the indexes listed in [{@code from}, {@code to}) of the request.
+     */
+    private void __reply(SimulatedRed driver, Commands command, int from, int to) throws IOException {
+        driver.step(System.nanoTime());
+        Frame.begin(__out, driver.registers.getId(), command);
+        for (int pos = from; pos < to; pos++) {
+            int index = __decoder.byteAt(pos);
+            if (index < Registers.count() && Registers.size(index) > 0) {
+                driver.registers.putRegister(__out, index);
+            }
+        }
+        __send();
+    }
+
+    /**
+     * Replies with the index/value pairs of a WRITE_ACK request, as now stored.
+     */
+    private void __echo(SimulatedRed driver, Commands command, int end) throws IOException {
+        Frame.begin(__out, driver.registers.getId(), command);
+        int pos = Frame.HEADER_SIZE;
+        while (pos < end) {
+            int index = __decoder.byteAt(pos);
+            if (index >= Registers.count()) {
+                break;
+            }
+            driver.registers.putRegister(__out, index);
+            pos += 1 + Registers.size(index);
+        }
+        __send();
+    }
+
+    private void __send() throws IOException {
+        int size = Frame.end(__out);
+        __bus.write(__out.array(), __out.arrayOffset(), size);
+        __replies++;
+    }
+}
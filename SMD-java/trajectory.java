@@ -0,0 +1,322 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams precomputed setpoint arrays to several drivers, one point per period.
+ * <p>
+ * Each axis is a primitive array of setpoints for one register, usually SetPosition,
+ * SCurveSetpoint or SetVelocity. Every tick the points of all axes go out together:
+ * in SYNC_WRITE frames when all axes drive the same register, in BULK_WRITE frames
+ * otherwise, as few as fit in {@link Frame#MAX_SIZE}. Axes with a readback array get
+ * their PresentPosition read with BULK_READ every tick and stored at the tick's slot.
+ * Before the first tick, SetPosition and SCurveSetpoint axes get their PositionControlMode
+ * preloaded with BULK_WRITE, so a driver left in S-curve mode by a goTo follows the stream.
+ * <p>
+ * Ticks are scheduled against absolute deadlines. When a tick runs past the next
+ * deadline, the points that could not be sent on time are skipped so the trajectory
+ * stays on its time base; their readback slots are left as NaN.
+ */
+final class TrajectoryPlayer {
+    private final Master __master;
+    private final long __period;
+    private final List<Integer> __ids = new ArrayList<>();
+    private final List<Index> __indexes = new ArrayList<>();
+    private final List<float[]> __floats = new ArrayList<>();
+    private final List<int[]> __ints = new ArrayList<>();
+    private final Map<Integer, float[]> __readback = new LinkedHashMap<>();
+
+    TrajectoryPlayer(Master master, long periodNanos) {
+        if (periodNanos <= 0) {
+            throw new IllegalArgumentException("Trajectory period must be positive!");
+        }
+        __master = master;
+        __period = periodNanos;
+    }
+
+    public TrajectoryPlayer axis(int id, Index setpoint, float[] points) {
+        return __axis(id, setpoint, points, null);
+    }
+
+    public TrajectoryPlayer axis(int id, Index setpoint, int[] points) {
+        return __axis(id, setpoint, null, points);
+    }
+
+    private TrajectoryPlayer __axis(int id, Index setpoint, float[] floats, int[] ints) {
+        __master.driver(id);
+        if (__ids.contains(id)) {
+            throw new IllegalArgumentException(id + " already has a trajectory!");
+        }
+        __ids.add(id);
+        __indexes.add(setpoint);
+        __floats.add(floats);
+        __ints.add(ints);
+        return this;
+    }
+
+    /**
+     * Reads PresentPosition of {@code id} every tick into {@code positions[tick]}.
+     * The array must hold at least as many points as the longest axis.
+     */
+    public TrajectoryPlayer readback(int id, float[] positions) {
+        __master.driver(id);
+        __readback.put(id, positions);
+        return this;
+    }
+
+    /**
+     * Plays the trajectory on the calling thread. An axis shorter than the longest
+     * one holds its last point. Each tick holds the Master's monitor while it is on the bus.
+     */
+    public TrajectoryReport play() throws Exception {
+        if (__ids.isEmpty()) {
+            throw new IndexOutOfBoundsException("Given trajectory is empty!");
+        }
+        int axes = __ids.size();
+        int ticks = 0;
+        for (int a = 0; a < axes; a++) {
+            ticks = Math.max(ticks, __length(a));
+        }
+        for (Map.Entry<Integer, float[]> entry : __readback.entrySet()) {
+            if (entry.getValue().length < ticks) {
+                throw new IndexOutOfBoundsException("Readback array of " + entry.getKey() + " is shorter than the trajectory!");
+            }
+            Arrays.fill(entry.getValue(), 0, ticks, Float.NaN);
+        }
+
+        int[] ids = __ids.stream().mapToInt(Integer::intValue).toArray();
+        Red[] drivers = new Red[axes];
+        for (int a = 0; a < axes; a++) {
+            drivers[a] = __master.driver(ids[a]);
+        }
+
+        boolean sync = true;
+        for (Index index : __indexes) {
+            sync &= index == __indexes.get(0);
+        }
+        List<int[]> syncFrames = new ArrayList<>();
+        List<BulkWrite> bulkFrames = new ArrayList<>();
+        if (sync) {
+            int perFrame = (Frame.MAX_SIZE - Frame.HEADER_SIZE - Frame.CRC_SIZE - 1) / (1 + Registers.size(__indexes.get(0).ordinal()));
+            for (int from = 0; from < axes; from += perFrame) {
+                syncFrames.add(Arrays.copyOfRange(ids, from, Math.min(axes, from + perFrame)));
+            }
+        } else {
+            int size = Frame.MAX_SIZE;
+            BulkWrite bulk = null;
+            for (int a = 0; a < axes; a++) {
+                int group = 2 + 1 + Registers.size(__indexes.get(a).ordinal());
+                if (size + group + Frame.CRC_SIZE > Frame.MAX_SIZE) {
+                    bulk = __master.bulkWrite();
+                    bulkFrames.add(bulk);
+                    size = Frame.HEADER_SIZE;
+                }
+                bulk.add(ids[a], __indexes.get(a));
+                size += group;
+            }
+        }
+
+        List<BulkRead> reads = new ArrayList<>();
+        int[] readIds = __readback.keySet().stream().mapToInt(Integer::intValue).toArray();
+        float[][] readInto = new float[readIds.length][];
+        long[] stamps = new long[readIds.length];
+        int perRead = (Frame.MAX_SIZE - Frame.HEADER_SIZE - Frame.CRC_SIZE) / 3;
+        Map<Integer, Index[]> request = new LinkedHashMap<>();
+        for (int r = 0; r < readIds.length; r++) {
+            readInto[r] = __readback.get(readIds[r]);
+            request.put(readIds[r], new Index[]{Index.PresentPosition});
+            if (request.size() == perRead || r == readIds.length - 1) {
+                reads.add(new BulkRead(request));
+                request = new LinkedHashMap<>();
+            }
+        }
+
+        // the drivers only follow SetPosition in PositionControlMode 0 and SCurveSetpoint in 1
+        BulkWrite modes = __master.bulkWrite();
+        int modeGroup = 2 + 1 + Registers.size(Index.PositionControlMode.ordinal());
+        int size = Frame.HEADER_SIZE + Frame.CRC_SIZE;
+        boolean pending = false;
+        for (int a = 0; a < axes; a++) {
+            Index index = __indexes.get(a);
+            if (index != Index.SetPosition && index != Index.SCurveSetpoint) {
+                continue;
+            }
+            if (size + modeGroup > Frame.MAX_SIZE) {
+                modes.send();
+                modes.clear();
+                size = Frame.HEADER_SIZE + Frame.CRC_SIZE;
+            }
+            modes.set(ids[a], Index.PositionControlMode, index == Index.SetPosition ? 0 : 1);
+            size += modeGroup;
+            pending = true;
+        }
+        if (pending) {
+            modes.send();
+        }
+
+        Histogram jitter = new Histogram();
+        long missed = 0;
+        long skipped = 0;
+        long start = System.nanoTime();
+        int tick = 0;
+        while (tick < ticks) {
+            long deadline = start + tick * __period;
+            LoopRunner.awaitDeadline(deadline);
+            jitter.record(System.nanoTime() - deadline);
+
+            synchronized (__master) {
+                for (int a = 0; a < axes; a++) {
+                    drivers[a].set(__indexes.get(a).ordinal(), __point(a, tick));
+                }
+                for (int[] frame : syncFrames) {
+                    __master.syncWrite(__indexes.get(0), frame);
+                }
+                for (BulkWrite frame : bulkFrames) {
+                    __master.bulkWrite(frame);
+                }
+
+                if (!reads.isEmpty()) {
+                    for (int r = 0; r < readIds.length; r++) {
+                        stamps[r] = __master.driver(readIds[r]).receivedAt(Index.PresentPosition);
+                    }
+                    for (BulkRead read : reads) {
+                        __master.bulkRead(read);
+                    }
+                    for (int r = 0; r < readIds.length; r++) {
+                        Red driver = __master.driver(readIds[r]);
+                        if (driver.receivedAt(Index.PresentPosition) != stamps[r]) {
+                            readInto[r][tick] = driver.getFloat(Index.PresentPosition);
+                        }
+                    }
+                }
+            }
+
+            int next = tick + 1;
+            long behind = System.nanoTime() - (start + next * __period);
+            if (behind > 0 && next < ticks) {
+                int late = (int) Math.min(ticks - next, behind / __period + 1);
+                missed++;
+                skipped += late;
+                next += late;
+            }
+            tick = next;
+        }
+
+        return new TrajectoryReport(ticks, missed, skipped, jitter, __trackingErrors(ticks));
+    }
+
+    /**
+     * Returns the setpoint of {@code axis} at {@code tick}, holding the last point past its end.
+     */
+    private double __point(int axis, int tick) {
+        int point = Math.min(tick, __length(axis) - 1);
+        float[] floats = __floats.get(axis);
+        if (floats != null) {
+            return floats[point];
+        }
+        return __ints.get(axis)[point];
+    }
+
+    private int __length(int axis) {
+        float[] floats = __floats.get(axis);
+        return floats != null ? floats.length : __ints.get(axis).length;
+    }
+
+    /**
+     * Compares the readback of every position axis with its setpoints: {id, max, rms} per axis.
+     */
+    private List<double[]> __trackingErrors(int ticks) {
+        List<double[]> errors = new ArrayList<>();
+        for (int a = 0; a < __ids.size(); a++) {
+            Index index = __indexes.get(a);
+            float[] positions = __readback.get(__ids.get(a));
+            if (positions == null || (index != Index.SetPosition && index != Index.SCurveSetpoint)) {
+                continue;
+            }
+            double max = 0;
+            double squares = 0;
+            int samples = 0;
+            for (int tick = 0; tick < ticks; tick++) {
+                if (Float.isNaN(positions[tick])) {
+                    continue;
+                }
+                double error = __point(a, tick) - positions[tick];
+                max = Math.max(max, Math.abs(error));
+                squares += error * error;
+                samples++;
+            }
+            errors.add(new double[]{__ids.get(a), max, samples == 0 ? 0 : Math.sqrt(squares / samples)});
+        }
+        return errors;
+    }
+}
+
+/**
+ * Outcome of a {@link TrajectoryPlayer#play()}.
+ */
+final class TrajectoryReport {
+    private final int __ticks;
+    private final long __missed;
+    private final long __skipped;
+    private final Histogram __jitter;
+    private final Map<Integer, double[]> __errors = new LinkedHashMap<>();
+
+    TrajectoryReport(int ticks, long missed, long skipped, Histogram jitter, List<double[]> errors) {
+        __ticks = ticks;
+        __missed = missed;
+        __skipped = skipped;
+        __jitter = jitter;
+        for (double[] error : errors) {
+            __errors.put((int) error[0], error);
+        }
+    }
+
+    public int ticks() {
+        return __ticks;
+    }
+
+    /**
+     * Returns the number of ticks that ran past the next deadline.
+     */
+    public long missedDeadlines() {
+        return __missed;
+    }
+
+    /**
+     * Returns the number of points not sent because their deadline had passed.
+     */
+    public long skippedPoints() {
+        return __skipped;
+    }
+
+    /**
+     * Returns how late each tick started relative to its deadline.
+     */
+    public Histogram jitter() {
+        return __jitter;
+    }
+
+    /**
+     * Returns the largest |setpoint - PresentPosition| of a position axis with readback, or NaN.
+     */
+    public double maxTrackingError(int id) {
+        double[] error = __errors.get(id);
+        return error == null ? Double.NaN : error[1];
+    }
+
+    public double rmsTrackingError(int id) {
+        double[] error = __errors.get(id);
+        return error == null ? Double.NaN : error[2];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(String.format("ticks=%d missed=%d skipped=%d jitter[%s]", __ticks, __missed, __skipped, __jitter));
+        for (double[] error : __errors.values()) {
+            text.append(String.format(" id%d[max=%.1f rms=%.1f]", (int) error[0], error[1], error[2]));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,473 @@
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fazecast.jSerialComm.SerialPort;
+import com.fazecast.jSerialComm.SerialPortDataListener;
+import com.fazecast.jSerialComm.SerialPortEvent;
+
+/**
+ * Byte stream between a {@link Master} and its drivers.
+ * <p>
+ * Reads never block; {@link #awaitData(long)} is the only waiting call, so the
+ * master can complete a transaction as soon as the reply bytes are in.
+ */
+interface BusTransport extends AutoCloseable {
+    void write(byte[] data, int offset, int length) throws IOException;
+
+    /**
+     * Reads up to {@code length} buffered bytes without blocking.
+     *
+     * @return the number of bytes read, or -1 if the transport is closed
+     */
+    int read(byte[] buffer, int offset, int length) throws IOException;
+
+    int available() throws IOException;
+
+    /**
+     * Waits until bytes are available or {@link System#nanoTime()} reaches {@code deadline}.
+     *
+     * @return true if bytes are available
+     */
+    boolean awaitData(long deadline) throws IOException;
+
+    void setBaudrate(int baudrate) throws IOException;
+
+    String name();
+
+    @Override
+    void close() throws IOException;
+}
+
+/**
+ * {@link BusTransport} over a jSerialComm port. Also opens Linux pseudo-terminals
+ * such as the {@code /dev/pts/N} ends of a socat pair.
+ */
+final class SerialTransport implements BusTransport {
+    private static final int __WRITE_TIMEOUT_MILLIS = 100;
+
+    private final SerialPort __ph;
+    private volatile Thread __waiter = null;
+
+    SerialTransport(String portname, int baudrate) {
+        __ph = SerialPort.getCommPort(portname);
+        __ph.setBaudRate(baudrate);
+        __ph.setComPortTimeouts(SerialPort.TIMEOUT_NONBLOCKING | SerialPort.TIMEOUT_WRITE_BLOCKING, 0, __WRITE_TIMEOUT_MILLIS);
+        __ph.openPort();
+        __ph.addDataListener(new SerialPortDataListener() {
+            @Override
+            public int getListeningEvents() {
+                return SerialPort.LISTENING_EVENT_DATA_AVAILABLE;
+            }
+
+            @Override
+            public void serialEvent(SerialPortEvent event) {
+                Thread waiter = __waiter;
+                if (waiter != null) {
+                    LockSupport.unpark(waiter);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the whole frame, blocking until the port has taken every byte.
+     *
+     * @throws IOException if the port fails or takes no bytes within the write timeout
+     */
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            int written = __ph.writeBytes(data, length, offset);
+            if (written < 0) {
+                throw new IOException("Write to " + name() + " failed!");
+            }
+            if (written == 0) {
+                throw new IOException("Write to " + name() + " timed out with " + length + " bytes left!");
+            }
+            offset += written;
+            length -= written;
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        return __ph.readBytes(buffer, length, offset);
+    }
+
+    @Override
+    public int available() {
+        return __ph.bytesAvailable();
+    }
+
+    @Override
+    public boolean awaitData(long deadline) {
+        while (__ph.bytesAvailable() == 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            __waiter = Thread.currentThread();
+            if (__ph.bytesAvailable() == 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            __waiter = null;
+        }
+        return true;
+    }
+
+    @Override
+    public void setBaudrate(int baudrate) {
+        __ph.closePort();
+        __ph.setBaudRate(baudrate);
+        __ph.openPort();
+    }
+
+    @Override
+    public String name() {
+        return __ph.getSystemPortName();
+    }
+
+    @Override
+    public void close() {
+        __ph.removeDataListener();
+        __ph.closePort();
+    }
+}
+
+/**
+ * In-process {@link BusTransport}. Bytes written to one end of a {@link #pair()}
+ * become readable on the other, which makes the protocol stack measurable without
+ * an RS-485 adapter.
+ * <p>
+ * A pair made with {@link #pair(int)} also models the wire: both ends share one
+ * half-duplex line, every byte takes 10 bit times at the line's baudrate and only
+ * becomes readable once its last bit has arrived. A driver turnaround delay and
+ * random bit errors can be added to predict loop rates before the hardware exists.
+ */
+class LoopbackTransport implements BusTransport {
+    private static final int CAPACITY = 1 << 16;
+    private static final int MASK = CAPACITY - 1;
+
+    /**
+     * The line shared by both ends of a pair.
+     */
+    private static final class Wire {
+        private long __byteNanos = 0;
+        private long __freeAt = 0;
+        private double __byteErrorRate = 0;
+        private SplittableRandom __random = null;
+        private long __errors = 0;
+
+        /**
+         * Books the line for {@code length} bytes starting no earlier than {@code earliest}.
+         *
+         * @return the time the first bit goes out
+         */
+        synchronized long book(long earliest, int length) {
+            long start = Math.max(earliest, __freeAt);
+            __freeAt = start + length * __byteNanos;
+            return start;
+        }
+
+        synchronized byte corrupt(byte b) {
+            if (__random != null && __random.nextDouble() < __byteErrorRate) {
+                __errors++;
+                return (byte) (b ^ (1 << __random.nextInt(8)));
+            }
+            return b;
+        }
+    }
+
+    private final String __name;
+    private final byte[] __in = new byte[CAPACITY];
+    private final long[] __arrival = new long[CAPACITY];
+    private long __head = 0;
+    private long __tail = 0;
+    private long __overruns = 0;
+    private boolean __closed = false;
+    private long __turnaround = 0;
+    private LoopbackTransport __peer;
+    private Wire __wire = new Wire();
+
+    LoopbackTransport(String name) {
+        __name = name;
+    }
+
+    /**
+     * Returns two connected ends, the first for the master and the second for the drivers.
+     * Bytes cross instantly.
+     */
+    static LoopbackTransport[] pair() {
+        LoopbackTransport master = new LoopbackTransport("loopback-master");
+        LoopbackTransport bus = new LoopbackTransport("loopback-bus");
+        master.__peer = bus;
+        bus.__peer = master;
+        master.__wire = bus.__wire = new Wire();
+        return new LoopbackTransport[]{master, bus};
+    }
+
+    /**
+     * Returns two connected ends whose bytes take the wire time of {@code baudrate}.
+     */
+    static LoopbackTransport[] pair(int baudrate) {
+        LoopbackTransport[] ends = pair();
+        ends[0].setBaudrate(baudrate);
+        return ends;
+    }
+
+    /**
+     * Returns the number of bytes dropped because the receive buffer was full.
+     */
+    synchronized long overruns() {
+        return __overruns;
+    }
+
+    /**
+     * Delays every write from this end by {@code nanos}, the time a driver takes to
+     * turn the line around before replying.
+     */
+    synchronized void setTurnaround(long nanos) {
+        __turnaround = nanos;
+    }
+
+    /**
+     * Flips one random bit in bytes crossing the line in either direction, each
+     * bit with probability {@code bitErrorRate}. The sequence repeats for the same {@code seed}.
+     */
+    void setBitErrorRate(double bitErrorRate, long seed) {
+        synchronized (__wire) {
+            __wire.__byteErrorRate = 1 - Math.pow(1 - bitErrorRate, 8);
+            __wire.__random = bitErrorRate > 0 ? new SplittableRandom(seed) : null;
+        }
+    }
+
+    /**
+     * Returns the number of bytes corrupted on the line so far.
+     */
+    long injectedErrors() {
+        synchronized (__wire) {
+            return __wire.__errors;
+        }
+    }
+
+    /**
+     * Returns the wire time of one byte, or 0 if bytes cross instantly.
+     */
+    long byteNanos() {
+        synchronized (__wire) {
+            return __wire.__byteNanos;
+        }
+    }
+
+    synchronized void deliver(byte[] data, int offset, int length, long start, long byteNanos) {
+        for (int i = 0; i < length; i++) {
+            if (__tail - __head == CAPACITY) {
+                __overruns += length - i;
+                break;
+            }
+            __arrival[(int) (__tail & MASK)] = start + (i + 1) * byteNanos;
+            __in[(int) (__tail++ & MASK)] = __wire.corrupt(data[offset + i]);
+        }
+        notifyAll();
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        long turnaround;
+        synchronized (this) {
+            if (__closed) {
+                throw new IOException(__name + " is closed!");
+            }
+            turnaround = __turnaround;
+        }
+        long byteNanos = byteNanos();
+        long start = __wire.book(System.nanoTime() + turnaround, length);
+        __peer.deliver(data, offset, length, start, byteNanos);
+    }
+
+    @Override
+    public synchronized int read(byte[] buffer, int offset, int length) {
+        if (__closed) {
+            return -1;
+        }
+        int n = Math.min(length, available());
+        for (int i = 0; i < n; i++) {
+            buffer[offset + i] = __in[(int) (__head++ & MASK)];
+        }
+        return n;
+    }
+
+    /**
+     * Returns the number of bytes that have fully arrived.
+     */
+    @Override
+    public synchronized int available() {
+        long now = System.nanoTime();
+        long n = __head;
+        while (n < __tail && __arrival[(int) (n & MASK)] - now <= 0) {
+            n++;
+        }
+        return (int) (n - __head);
+    }
+
+    @Override
+    public boolean awaitData(long deadline) throws IOException {
+        while (true) {
+            long arrival;
+            synchronized (this) {
+                if (__closed || available() > 0) {
+                    return available() > 0;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                if (__head == __tail) {
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for " + __name, e);
+                    }
+                    continue;
+                }
+                arrival = __arrival[(int) (__head & MASK)];
+            }
+            LoopRunner.awaitDeadline(deadline - arrival < 0 ? deadline : arrival);
+        }
+    }
+
+    /**
+     * Sets the line rate for both ends of the pair.
+     */
+    @Override
+    public void setBaudrate(int baudrate) {
+        synchronized (__wire) {
+            __wire.__byteNanos = Frame.BITS_PER_BYTE * 1_000_000_000L / baudrate;
+        }
+    }
+
+    @Override
+    public String name() {
+        return __name;
+    }
+
+    @Override
+    public synchronized void close() {
+        __closed = true;
+        notifyAll();
+    }
+}
+
+/**
+ * {@link BusTransport} over a stream socket, by default one end of a Unix domain
+ * socket pair. Puts the kernel's IPC path between master and drivers without
+ * needing serial hardware.
+ */
+final class SocketTransport implements BusTransport {
+    private final SocketChannel __channel;
+    private final Selector __selector;
+    private final ByteBuffer __staged = ByteBuffer.allocate(4096);
+    private final String __name;
+
+    SocketTransport(SocketChannel channel, String name) throws IOException {
+        __channel = channel;
+        __name = name;
+        __channel.configureBlocking(false);
+        __selector = Selector.open();
+        __channel.register(__selector, SelectionKey.OP_READ);
+        __staged.flip();
+    }
+
+    /**
+     * Returns two connected ends of a Unix domain socket, the first for the master and the second for the drivers.
+     */
+    static SocketTransport[] pair() throws IOException {
+        Path path = Files.createTempFile("smd-bus", ".sock");
+        Files.delete(path);
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(path);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address);
+            SocketChannel master = SocketChannel.open(address);
+            SocketChannel bus = server.accept();
+            return new SocketTransport[]{new SocketTransport(master, "socket-master"), new SocketTransport(bus, "socket-bus")};
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        ByteBuffer out = ByteBuffer.wrap(data, offset, length);
+        while (out.hasRemaining()) {
+            __channel.write(out);
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (__fill() < 0 && !__staged.hasRemaining()) {
+            return -1;
+        }
+        int n = Math.min(length, __staged.remaining());
+        __staged.get(buffer, offset, n);
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        __fill();
+        return __staged.remaining();
+    }
+
+    @Override
+    public boolean awaitData(long deadline) throws IOException {
+        while (available() == 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            __selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+            __selector.selectedKeys().clear();
+        }
+        return true;
+    }
+
+    /**
+     * Moves whatever the socket has into the staging buffer.
+     */
+    private int __fill() throws IOException {
+        __staged.compact();
+        try {
+            return __channel.read(__staged);
+        } finally {
+            __staged.flip();
+        }
+    }
+
+    @Override
+    public void setBaudrate(int baudrate) {
+    }
+
+    @Override
+    public String name() {
+        return __name;
+    }
+
+    @Override
+    public void close() throws IOException {
+        __selector.close();
+        __channel.close();
+    }
+}
@@ -0,0 +1,253 @@
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the protocol stack. Run with {@code -prof gc} to get the
+ * allocation rate of each; the encode, decode and CRC paths should report 0 B/op.
+ */
+final class Registers16 {
+    /**
+     * Sixteen consecutive float registers, PositionFF to VelocityIGain.
+     */
+    static final int[] INDEXES = new int[16];
+    static final double[] VALUES = new double[16];
+
+    static {
+        for (int i = 0; i < INDEXES.length; i++) {
+            INDEXES[i] = Index.PositionFF.ordinal() + i;
+            VALUES[i] = i * 0.5;
+        }
+    }
+
+    private Registers16() {
+    }
+}
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class BenchEncode {
+    @Param({"1", "4", "16"})
+    int registers;
+
+    private Red red;
+    private ByteBuffer out;
+
+    @Setup
+    public void setUp() throws Exception {
+        red = new Red(1);
+        out = Frame.buffer();
+    }
+
+    @Benchmark
+    public int setVariables() {
+        return red.setVariables(out, Registers16.INDEXES, Registers16.VALUES, registers, false);
+    }
+
+    @Benchmark
+    public int getVariables() {
+        return red.getVariables(out, Registers16.INDEXES, registers);
+    }
+}
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class BenchDecode {
+    @Param({"1", "4", "16"})
+    int registers;
+
+    private Red red;
+    private FrameDecoder decoder;
+    private byte[] reply;
+
+    @Setup
+    public void setUp() throws Exception {
+        Red source = new Red(1);
+        for (int i = 0; i < registers; i++) {
+            source.set(Registers16.INDEXES[i], Registers16.VALUES[i]);
+        }
+        ByteBuffer out = Frame.buffer();
+        Frame.begin(out, 1, Commands.READ);
+        for (int i = 0; i < registers; i++) {
+            source.putRegister(out, Registers16.INDEXES[i]);
+        }
+        Frame.end(out);
+        reply = Frame.toArray(out);
+
+        red = new Red(1);
+        decoder = new FrameDecoder();
+    }
+
+    @Benchmark
+    public int decode() {
+        decoder.feed(reply, 0, reply.length);
+        int id = decoder.poll();
+        decoder.decodeInto(red);
+        decoder.consume();
+        return id;
+    }
+}
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class BenchCrc {
+    /**
+     * A ping, a 16 float register reply and a full frame, without the CRC.
+     */
+    @Param({"6", "86", "251"})
+    int length;
+
+    private byte[] data;
+
+    @Setup
+    public void setUp() {
+        data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+    }
+
+    @Benchmark
+    public long crc() {
+        return Frame.crc(data, 0, length);
+    }
+}
+
+/**
+ * {@link Master#getVariables(int, int[], int)} against a {@link RedSimulator} over an
+ * instant {@link LoopbackTransport}. The master still paces frames at 12.5 MBit/s, so this
+ * measures the software cost of a transaction, not the wire.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class BenchRoundTrip {
+    private static final int BAUDRATE = 12500000;
+
+    @Param({"1", "4", "16"})
+    int registers;
+
+    private RedSimulator simulator;
+    private Master master;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        LoopbackTransport[] ends = LoopbackTransport.pair();
+        simulator = new RedSimulator(ends[1], BAUDRATE).addDriver(1).start();
+        master = new Master(ends[0], BAUDRATE);
+        master.attach(new Red(1));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        simulator.close();
+        master.close();
+    }
+
+    @Benchmark
+    public boolean getVariables() throws Exception {
+        return master.getVariables(1, Registers16.INDEXES, registers);
+    }
+}
+
+/**
+ * One {@link Master#bulkRead(BulkRead)} of position, velocity and current from every
+ * driver against the per-driver paths, over a baud-timed {@link LoopbackTransport}
+ * pair at 1 MBit/s, so wire time and inter-frame gaps count as they would on the bus.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class BenchBulkRead {
+    private static final int BAUDRATE = 1000000;
+    private static final Index[] TELEMETRY = {Index.PresentPosition, Index.PresentVelocity, Index.MotorCurrent};
+    private static final int[] INDEXES = {Index.PresentPosition.ordinal(), Index.PresentVelocity.ordinal(), Index.MotorCurrent.ordinal()};
+
+    @Param({"1", "8", "32"})
+    int drivers;
+
+    private RedSimulator simulator;
+    private Master master;
+    private BulkRead read;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        LoopbackTransport[] ends = LoopbackTransport.pair(BAUDRATE);
+        simulator = new RedSimulator(ends[1], BAUDRATE).addDrivers(1, drivers).start();
+        master = new Master(ends[0], BAUDRATE);
+        Map<Integer, Index[]> request = new LinkedHashMap<>();
+        for (int id = 1; id <= drivers; id++) {
+            master.attach(new Red(id));
+            request.put(id, TELEMETRY);
+        }
+        read = new BulkRead(request);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        simulator.close();
+        master.close();
+    }
+
+    @Benchmark
+    public boolean bulkRead() throws Exception {
+        return master.bulkRead(read);
+    }
+
+    /**
+     * One multi-index READ per driver.
+     */
+    @Benchmark
+    public int getVariables() throws Exception {
+        int replied = 0;
+        for (int id = 1; id <= drivers; id++) {
+            replied += master.getVariables(id, INDEXES, INDEXES.length) ? 1 : 0;
+        }
+        return replied;
+    }
+
+    /**
+     * The convenience getters, one READ per register and driver.
+     */
+    @Benchmark
+    public float getters() throws Exception {
+        float sum = 0;
+        for (int id = 1; id <= drivers; id++) {
+            sum += master.getPosition(id) + master.getVelocity(id) + master.getTorque(id);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,155 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TestAsyncMaster {
+    private static final int BAUDRATE = 115200;
+
+    private RedSimulator simulator;
+    private AsyncMaster async;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        LoopbackTransport[] ends = LoopbackTransport.pair();
+        simulator = new RedSimulator(ends[1], BAUDRATE).addDrivers(1, 2).start();
+        async = new AsyncMaster(ends[0], BAUDRATE);
+        async.attach(new Red(1));
+        async.attach(new Red(2)).get(1, TimeUnit.SECONDS);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        async.close();
+        simulator.close();
+    }
+
+    @Test
+    void testRequestsAfterCloseFailTheirFutures() throws Exception {
+        CompletableFuture<Boolean> queued = async.ping(1);
+        async.close();
+
+        assertTrue(queued.get(1, TimeUnit.SECONDS));
+        ExecutionException rejected = assertThrows(ExecutionException.class, () -> async.ping(1).get(1, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, rejected.getCause());
+        assertThrows(ExecutionException.class, () -> async.getPosition(1).get(1, TimeUnit.SECONDS));
+        assertThrows(ExecutionException.class, () -> async.setPosition(1, 100).get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testMotionOvertakesQueuedWork() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> blocker = async.submit(master -> release.await(1, TimeUnit.SECONDS));
+        while (async.queued(Lane.BACKGROUND) > 0) {
+            Thread.onSpinWait();
+        }
+
+        ConcurrentLinkedQueue<Lane> order = new ConcurrentLinkedQueue<>();
+        List<CompletableFuture<?>> queued = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            queued.add(async.submit(Lane.BACKGROUND, master -> order.add(Lane.BACKGROUND) && master.ping(1)));
+            queued.add(async.submit(Lane.TELEMETRY, master -> order.add(Lane.TELEMETRY) && master.ping(2)));
+        }
+        queued.add(async.submit(Lane.MOTION, master -> order.add(Lane.MOTION)));
+        Thread.sleep(20);
+        release.countDown();
+
+        assertTrue(blocker.get(1, TimeUnit.SECONDS));
+        CompletableFuture.allOf(queued.toArray(new CompletableFuture<?>[0])).get(1, TimeUnit.SECONDS);
+        List<Lane> served = new ArrayList<>(order);
+        assertEquals(Lane.MOTION, served.get(0));
+        assertEquals(Lane.TELEMETRY, served.get(1));
+        assertEquals(Lane.BACKGROUND, served.get(served.size() - 1));
+
+        // the motion request waited for the blocker alone, the background ones for everything before them
+        assertEquals(1, async.laneStats(Lane.MOTION).count());
+        assertTrue(async.laneStats(Lane.MOTION).maxNanos() >= 20_000_000L);
+        assertEquals(5, async.laneStats(Lane.TELEMETRY).count());
+        assertTrue(async.laneStats(Lane.BACKGROUND).maxNanos() > async.laneStats(Lane.MOTION).maxNanos());
+    }
+
+    @Test
+    void testConcurrentReadsShareOneFrame() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        async.submit(master -> release.await(1, TimeUnit.SECONDS));
+        long frames = simulator.frames();
+
+        CompletableFuture<Integer> position = async.getPosition(1);
+        CompletableFuture<Float> velocity = async.getVelocity(1);
+        CompletableFuture<Float> torque = async.getTorque(1);
+        release.countDown();
+
+        assertEquals(0, position.get(1, TimeUnit.SECONDS));
+        assertEquals(0f, velocity.get(1, TimeUnit.SECONDS));
+        assertEquals(0f, torque.get(1, TimeUnit.SECONDS));
+        assertEquals(1, simulator.frames() - frames);
+        assertEquals(2, async.coalescedReads());
+    }
+
+    @Test
+    void testCoalesceWindowDoesNotStallOtherLanes() throws Exception {
+        async.setCoalesceWindow(200_000_000L);
+        long frames = simulator.frames();
+
+        // the write goes out while the read batch waits for its window
+        CompletableFuture<Integer> position = async.getPosition(1);
+        assertNotNull(async.setVariables(2, List.<Object[]>of(new Object[]{Index.SetPosition.ordinal(), 100}), true)
+            .get(100, TimeUnit.MILLISECONDS));
+        CompletableFuture<Float> velocity = async.getVelocity(1);
+        assertFalse(position.isDone());
+
+        position.get(1, TimeUnit.SECONDS);
+        velocity.get(1, TimeUnit.SECONDS);
+        assertEquals(2, simulator.frames() - frames);
+        assertEquals(1, async.coalescedReads());
+    }
+
+    @Test
+    void testQueuedSetpointsKeepOnlyTheLastValue() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        async.submit(Lane.MOTION, master -> release.await(1, TimeUnit.SECONDS));
+        long frames = simulator.frames();
+
+        List<CompletableFuture<Void>> sent = new ArrayList<>();
+        for (int value = 10; value <= 30; value += 10) {
+            sent.add(async.setpoint(1, Index.SetPosition, value));
+        }
+        sent.add(async.setpoint(2, Index.SetPosition, 5));
+        release.countDown();
+
+        CompletableFuture.allOf(sent.toArray(new CompletableFuture<?>[0])).get(1, TimeUnit.SECONDS);
+        assertTrue(async.ping(1).get(1, TimeUnit.SECONDS));
+        assertEquals(30f, simulator.driver(1).getFloat(Index.SetPosition));
+        assertEquals(5f, simulator.driver(2).getFloat(Index.SetPosition));
+        assertEquals(2, async.supersededSetpoints());
+
+        // one write per driver and the ping
+        assertEquals(3, simulator.frames() - frames);
+    }
+
+    @Test
+    void testMovesArePolledOnTheTelemetryLane() throws Exception {
+        for (int id = 1; id <= 2; id++) {
+            async.setVariables(id, List.<Object[]>of(
+                new Object[]{Index.OperationMode.ordinal(), 1},
+                new Object[]{Index.TorqueEnable.ordinal(), 1}), false);
+        }
+
+        assertEquals(1500, async.goTo(1, 1500, 0, 20000, 100000, 5).get(2, TimeUnit.SECONDS), 5);
+        async.goToAll(Map.of(1, new Move(-500, 0, 20000, 100000, 5), 2, Move.constantSpeed(800, 10000, 5)))
+            .get(2, TimeUnit.SECONDS);
+        assertEquals(-500, simulator.driver(1).getFloat(Index.PresentPosition), 5);
+        assertTrue(async.laneStats(Lane.TELEMETRY).count() > 2);
+    }
+}
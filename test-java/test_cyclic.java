@@ -0,0 +1,121 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TestProcessImage {
+    private static final int BAUDRATE = 115200;
+
+    private RedSimulator simulator;
+    private Master master;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        LoopbackTransport[] ends = LoopbackTransport.pair();
+        simulator = new RedSimulator(ends[1], BAUDRATE).addDrivers(1, 3).start();
+        master = new Master(ends[0], BAUDRATE);
+        for (int id = 1; id <= 3; id++) {
+            master.attach(new Red(id));
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        simulator.close();
+        master.close();
+    }
+
+    @Test
+    void testUniformOutputsUseSyncWrite() throws Exception {
+        ProcessImage image = master.processImage();
+        for (int id = 1; id <= 3; id++) {
+            image.output(id, Index.SetVelocity).input(id, Index.Baudrate, Index.SetVelocity);
+        }
+        image.compile();
+
+        // one SYNC_WRITE and one BULK_READ
+        assertEquals(2, image.frames());
+
+        image.outputs()[image.outputSlot(2, Index.SetVelocity)] = 25;
+        assertTrue(image.exchange());
+
+        assertEquals(25f, simulator.driver(2).getFloat(Index.SetVelocity));
+        assertEquals(25, image.inputs()[image.inputSlot(2, Index.SetVelocity)]);
+        assertEquals(BAUDRATE, image.inputs()[image.inputSlot(3, Index.Baudrate)]);
+        assertEquals(1, image.cycles());
+    }
+
+    @Test
+    void testMixedOutputsUseBulkWrite() throws Exception {
+        ProcessImage image = master.processImage()
+            .output(1, Index.SetVelocity, Index.SetVelocityAcceleration)
+            .output(2, Index.SetTorque)
+            .input(1, Index.PresentVelocity)
+            .compile();
+
+        assertEquals(2, image.frames());
+
+        double[] outputs = image.outputs();
+        outputs[image.outputSlot(1, Index.SetVelocityAcceleration)] = 100;
+        outputs[image.outputSlot(2, Index.SetTorque)] = 7;
+        assertTrue(image.exchange());
+        assertTrue(master.ping(2));
+
+        assertEquals(100f, simulator.driver(1).getFloat(Index.SetVelocityAcceleration));
+        assertEquals(7f, simulator.driver(2).getFloat(Index.SetTorque));
+    }
+
+    @Test
+    void testDeclarationsAreFixedAfterCompile() throws Exception {
+        ProcessImage image = master.processImage().input(1, Index.PresentPosition).compile();
+
+        assertThrows(IllegalStateException.class, () -> image.input(2, Index.PresentPosition));
+        assertThrows(IllegalArgumentException.class, () -> image.inputSlot(2, Index.PresentPosition));
+        assertThrows(IllegalArgumentException.class, () -> master.processImage().output(9, Index.SetPosition));
+    }
+
+    @Test
+    void testRunsCyclically() throws Exception {
+        ProcessImage image = master.processImage().input(3, Index.PresentPosition).compile();
+
+        image.start(2_000_000, () -> { });
+        Thread.sleep(100);
+        image.stop();
+
+        assertTrue(image.cycles() > 10);
+        assertEquals(0, image.failedCycles());
+    }
+
+    @Test
+    void testCallbackRunsWhenTheExchangeFails() throws Exception {
+        ProcessImage image = master.processImage().input(3, Index.PresentPosition).compile();
+        master.detach(3);
+        AtomicInteger calls = new AtomicInteger();
+
+        image.start(2_000_000, calls::incrementAndGet);
+        Thread.sleep(50);
+        image.stop();
+
+        assertTrue(calls.get() > 5);
+        assertEquals(image.cycles(), image.failedCycles());
+        assertInstanceOf(IllegalArgumentException.class, image.lastError());
+    }
+
+    @Test
+    void testCallbackErrorsAreKept() throws Exception {
+        ProcessImage image = master.processImage().input(3, Index.PresentPosition).compile();
+
+        image.start(2_000_000, () -> {
+            throw new IllegalStateException("callback failed");
+        });
+        Thread.sleep(50);
+        image.stop();
+
+        assertTrue(image.cycles() > 5);
+        assertEquals(0, image.failedCycles());
+        assertEquals("callback failed", image.lastError().getMessage());
+    }
+}
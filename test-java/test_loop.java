@@ -0,0 +1,81 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class TestHistogram {
+
+    @Test
+    void testPercentilesWithinBucketPrecision() {
+        Histogram histogram = new Histogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(1000, histogram.count());
+        assertEquals(1000, histogram.minNanos());
+        assertEquals(1_000_000, histogram.maxNanos());
+        assertEquals(500_500, histogram.meanNanos());
+        assertEquals(500_000, histogram.percentileNanos(50), 500_000 / 16.0);
+        assertEquals(990_000, histogram.percentileNanos(99), 990_000 / 16.0);
+        assertEquals(1_000_000, histogram.percentileNanos(100));
+    }
+
+    @Test
+    void testSnapshotIsDetached() {
+        Histogram histogram = new Histogram();
+        histogram.record(5);
+        Histogram snapshot = histogram.snapshot();
+        histogram.record(7);
+        histogram.reset();
+
+        assertEquals(1, snapshot.count());
+        assertEquals(5, snapshot.maxNanos());
+        assertEquals(0, histogram.count());
+    }
+}
+
+class TestLoopRunner {
+
+    @Test
+    void testKeepsPeriod() throws Exception {
+        long period = 1_000_000;
+        AtomicInteger calls = new AtomicInteger();
+        long begin = System.nanoTime();
+        LoopRunner loop = new LoopRunner(period, calls::incrementAndGet).start();
+        Thread.sleep(200);
+        loop.stop();
+        long elapsed = System.nanoTime() - begin;
+
+        // every deadline between start and stop was either served or skipped, and no
+        // more than fit in the elapsed time; the lower bound allows for a late thread start
+        long deadlines = loop.iterations() + loop.skippedPeriods();
+        assertTrue(deadlines <= elapsed / period + 2, "deadlines " + deadlines + " in " + elapsed + " ns");
+        assertTrue(deadlines >= elapsed / period / 2, "deadlines " + deadlines + " in " + elapsed + " ns");
+        assertEquals(loop.iterations(), calls.get());
+        assertEquals(loop.iterations(), loop.jitter().count());
+    }
+
+    @Test
+    void testCountsOverruns() throws Exception {
+        LoopRunner[] loop = new LoopRunner[1];
+        AtomicInteger calls = new AtomicInteger();
+        loop[0] = new LoopRunner(1_000_000, () -> {
+            if (calls.incrementAndGet() == 3) {
+                try {
+                    Thread.sleep(5);
+                    loop[0].stop();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        loop[0].run();
+
+        assertEquals(3, loop[0].iterations());
+        assertEquals(1, loop[0].overruns());
+        assertTrue(loop[0].skippedPeriods() >= 4);
+        assertTrue(loop[0].duration().maxNanos() >= 5_000_000);
+    }
+}
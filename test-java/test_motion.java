@@ -0,0 +1,255 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TestPositionPoller {
+    private static final int BAUDRATE = 115200;
+
+    private RedSimulator simulator;
+    private Master master;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        LoopbackTransport[] ends = LoopbackTransport.pair();
+        simulator = new RedSimulator(ends[1], BAUDRATE).addDrivers(1, 2).start();
+        master = new Master(ends[0], BAUDRATE);
+        for (int id = 1; id <= 2; id++) {
+            master.attach(new Red(id));
+            master.setVariables(id, List.<Object[]>of(
+                new Object[]{Index.OperationMode.ordinal(), 1},
+                new Object[]{Index.TorqueEnable.ordinal(), 1}), false);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        master.close();
+        simulator.close();
+    }
+
+    @Test
+    void testGoToCompletesOnArrival() throws Exception {
+        CompletableFuture<Integer> arrived = master.goTo(1, 2000, 0, 20000, 100000, false, 5);
+
+        assertEquals(2000, arrived.get(2, TimeUnit.SECONDS), 5);
+        assertEquals(2000f, simulator.driver(1).getFloat(Index.SCurveSetpoint));
+    }
+
+    @Test
+    void testAxesShareOnePollStream() throws Exception {
+        CompletableFuture<Integer> first = master.goToConstantSpeed(1, 3000, 10000, false, 5);
+        CompletableFuture<Integer> second = master.goToConstantSpeed(2, -3000, 10000, false, 5);
+
+        CompletableFuture.allOf(first, second).get(2, TimeUnit.SECONDS);
+        PositionPoller poller = master.positionPoller();
+        assertEquals(0, poller.pending());
+
+        // at a 10 ms period, one stream of ~30 polls rather than one per axis
+        assertTrue(poller.polls() < 60, "polls " + poller.polls());
+    }
+
+    @Test
+    void testGoToAllStartsAxesTogether() throws Exception {
+        simulator.addDriver(3);
+        master.attach(new Red(3));
+        master.setVariables(3, List.<Object[]>of(
+            new Object[]{Index.OperationMode.ordinal(), 1},
+            new Object[]{Index.TorqueEnable.ordinal(), 1}), false);
+        long frames = simulator.frames();
+
+        CompletableFuture<Void> arrived = master.goToAll(Map.of(
+            1, new Move(1000, 0, 20000, 100000, 5),
+            2, new Move(-1500, 0, 20000, 100000, 5),
+            3, Move.constantSpeed(800, 10000, 5)));
+
+        arrived.get(2, TimeUnit.SECONDS);
+
+        // the preload BULK_WRITE and the SYNC_WRITE of the setpoints, polls aside
+        assertEquals(2, simulator.frames() - frames - master.positionPoller().polls());
+        assertEquals(1, simulator.driver(2).getU8(Index.PositionControlMode));
+        assertEquals(-1500f, simulator.driver(2).getFloat(Index.SCurveSetpoint));
+        assertEquals(800, simulator.driver(3).getFloat(Index.PresentPosition), 5);
+    }
+
+    @Test
+    void testManyAxesArePolledAcrossFrames() throws Exception {
+        simulator.addDrivers(3, 90);
+        Map<Integer, Move> moves = new HashMap<>();
+        for (int id = 1; id <= 90; id++) {
+            if (id > 2) {
+                master.attach(new Red(id));
+                master.setVariables(id, List.<Object[]>of(
+                    new Object[]{Index.OperationMode.ordinal(), 1},
+                    new Object[]{Index.TorqueEnable.ordinal(), 1}), false);
+            }
+            moves.put(id, Move.constantSpeed(10 * id, 10000, 5));
+        }
+
+        // 81 single-index groups fit in one BULK_READ, so every poll takes two
+        master.goToAll(moves).get(5, TimeUnit.SECONDS);
+        assertEquals(0, master.positionPoller().polls() % 2);
+        assertEquals(900, simulator.driver(90).getFloat(Index.PresentPosition), 5);
+    }
+
+    @Test
+    void testCallerKeepsUsingMasterWhilePolling() throws Exception {
+        CompletableFuture<Integer> arrived = master.goTo(1, 3000, 0, 20000, 100000, false, 5);
+
+        int polls = 0;
+        while (!arrived.isDone()) {
+            assertTrue(master.ping(2));
+            assertEquals(0, master.getVelocity(2), 1e-3);
+            polls++;
+        }
+
+        assertEquals(3000, arrived.get(), 5);
+        assertTrue(polls > 0);
+        assertTrue(master.positionPoller().polls() > 0);
+        assertEquals(0, master.metrics().timeouts(Commands.PING, 2));
+        assertEquals(0, master.metrics().crcErrors());
+    }
+
+    @Test
+    void testBlockingGoToWaits() throws Exception {
+        CompletableFuture<Integer> arrived = master.goTo(2, 500, 0, 20000, 100000, true, 5);
+
+        assertTrue(arrived.isDone());
+    }
+
+    @Test
+    void testUnreachableTargetCanBeCancelled() throws Exception {
+        master.enableTorque(1, false);
+        CompletableFuture<Integer> arrived = master.goTo(1, 100000, 0, 1000, 1000, false, 0);
+
+        assertThrows(Exception.class, () -> arrived.get(50, TimeUnit.MILLISECONDS));
+        arrived.cancel(false);
+        Thread.sleep(30);
+        assertEquals(0, master.positionPoller().pending());
+    }
+}
+
+class TestTrajectoryPlayer {
+    private static final int BAUDRATE = 1000000;
+
+    private RedSimulator simulator;
+    private Master master;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        LoopbackTransport[] ends = LoopbackTransport.pair();
+        simulator = new RedSimulator(ends[1], BAUDRATE).addDrivers(1, 2).start();
+        master = new Master(ends[0], BAUDRATE);
+        for (int id = 1; id <= 2; id++) {
+            master.attach(new Red(id));
+            master.setVariables(id, List.<Object[]>of(
+                new Object[]{Index.OperationMode.ordinal(), 1},
+                new Object[]{Index.TorqueEnable.ordinal(), 1}), false);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        master.close();
+        simulator.close();
+    }
+
+    @Test
+    void testStreamsPointsWithReadback() throws Exception {
+        int[] ramp = new int[100];
+        float[] slow = new float[50];
+        for (int i = 0; i < ramp.length; i++) {
+            ramp[i] = i * 10;
+        }
+        for (int i = 0; i < slow.length; i++) {
+            slow[i] = i * 2f;
+        }
+        float[] positions = new float[ramp.length];
+
+        TrajectoryReport report = master.trajectory(2_000_000)
+            .axis(1, Index.SetPosition, ramp)
+            .axis(2, Index.SetPosition, slow)
+            .readback(1, positions)
+            .play();
+
+        assertEquals(100, report.ticks());
+        assertEquals(990f, simulator.driver(1).getFloat(Index.SetPosition));
+        assertEquals(98f, simulator.driver(2).getFloat(Index.SetPosition));
+        assertFalse(Float.isNaN(positions[0]));
+        assertEquals(100 - report.skippedPoints(), report.jitter().count());
+        assertTrue(report.maxTrackingError(1) < 100, report.toString());
+        assertTrue(Double.isNaN(report.maxTrackingError(2)));
+    }
+
+    @Test
+    void testMixedRegistersUseBulkWrite() throws Exception {
+        TrajectoryReport report = master.trajectory(1_000_000)
+            .axis(1, Index.SetPosition, new int[]{10, 20, 30})
+            .axis(2, Index.SetVelocity, new float[]{1f, 2f, 3f})
+            .play();
+        assertTrue(master.ping(2));
+
+        assertEquals(3, report.ticks());
+        assertEquals(30f, simulator.driver(1).getFloat(Index.SetPosition));
+        assertEquals(3f, simulator.driver(2).getFloat(Index.SetVelocity));
+    }
+
+    @Test
+    void testManyAxesAreSplitAcrossFrames() throws Exception {
+        simulator.addDrivers(3, 60);
+        TrajectoryPlayer sync = master.trajectory(10_000_000);
+        TrajectoryPlayer mixed = master.trajectory(10_000_000);
+        float[][] positions = new float[61][];
+        for (int id = 1; id <= 60; id++) {
+            if (id > 2) {
+                master.attach(new Red(id));
+            }
+            sync.axis(id, Index.SetPosition, new float[]{id, 2 * id});
+            mixed.axis(id, id % 2 == 0 ? Index.SetPosition : Index.SetVelocity, new float[]{3 * id});
+            positions[id] = new float[2];
+            sync.readback(id, positions[id]);
+        }
+
+        // one mode preload, then 48 float setpoints fit in one SYNC_WRITE, 35 in one BULK_WRITE
+        long frames = simulator.frames();
+        assertEquals(2, sync.play().ticks());
+        assertEquals(1 + 2 * (2 + 1), simulator.frames() - frames);
+        frames = simulator.frames();
+        assertEquals(1, mixed.play().ticks());
+        assertEquals(1 + 2, simulator.frames() - frames);
+
+        assertEquals(118f, simulator.driver(59).getFloat(Index.SetPosition));
+        assertEquals(177f, simulator.driver(59).getFloat(Index.SetVelocity));
+        assertEquals(180f, simulator.driver(60).getFloat(Index.SetPosition));
+        assertFalse(Float.isNaN(positions[60][1]));
+    }
+
+    @Test
+    void testPositionStreamFollowsGoTo() throws Exception {
+        master.goTo(1, 500, 0, 20000, 100000, true, 5);
+        assertEquals(1, simulator.driver(1).getU8(Index.PositionControlMode));
+        float[] points = new float[]{510, 520, 530};
+
+        master.trajectory(2_000_000).axis(1, Index.SetPosition, points).play();
+
+        assertEquals(0, simulator.driver(1).getU8(Index.PositionControlMode));
+        assertEquals(530f, simulator.driver(1).getFloat(Index.SetPosition));
+        // in S-curve mode the driver would hold 500 instead of following the stream
+        assertEquals(530, master.positionPoller().await(1, 530, 5).get(1, TimeUnit.SECONDS), 5);
+    }
+
+    @Test
+    void testShortReadbackIsRejected() {
+        assertThrows(IndexOutOfBoundsException.class, () -> master.trajectory(1_000_000)
+            .axis(1, Index.SetPosition, new int[10])
+            .readback(1, new float[5])
+            .play());
+    }
+}
@@ -1,6 +1,13 @@
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.*;
@@ -68,4 +75,215 @@ class TestMaster {
         master.updateDeviceBaudRate(1, 9600);
         verify(mockDevice).setBaudRate(9600);
     }
-}
\ No newline at end of file
+}
+
+class TestFrame {
+
+    Red device;
+    ByteBuffer out;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        device = new Red(1);
+        out = ByteBuffer.allocate(Frame.MAX_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    void testWriteFrameLayout() {
+        int[] indexes = {Index.TorqueEnable.ordinal(), Index.SetVelocity.ordinal()};
+        double[] values = {1, 12.5};
+
+        int size = device.setVariables(out, indexes, values, 2, false);
+
+        assertEquals(6 + (1 + 1) + (1 + 4) + 4, size);
+        assertEquals(size, out.limit());
+        assertEquals(0x55, out.get(0) & 0xFF);
+        assertEquals(1, out.get(1));
+        assertEquals(0xBA, out.get(2) & 0xFF);
+        assertEquals(size, out.get(3) & 0xFF);
+        assertEquals(Commands.WRITE.getValue(), out.get(4));
+        assertEquals(Index.TorqueEnable.ordinal(), out.get(6));
+        assertEquals(1, out.get(7));
+        assertEquals(Index.SetVelocity.ordinal(), out.get(8));
+        assertEquals(12.5f, out.getFloat(9));
+
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), 0, size - 4);
+        assertEquals((int) crc.getValue(), out.getInt(size - 4));
+    }
+
+    @Test
+    void testReadFrameAckSize() {
+        int[] indexes = {Index.PresentPosition.ordinal(), Index.TorqueLimit.ordinal()};
+
+        int size = device.getVariables(out, indexes, 2);
+
+        assertEquals(6 + 2 + 4, size);
+        assertEquals(6 + (1 + 4) + (1 + 2) + 4, device.getAckSize());
+    }
+
+    @Test
+    void testEncoderDoesNotAllocate() {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int[] indexes = {Index.SetPosition.ordinal(), Index.SetVelocity.ordinal(), Index.TorqueLimit.ordinal(), Index.OperationMode.ordinal()};
+        double[] values = {100, 2.5, 300, 1};
+        int iterations = 100_000;
+
+        for (int i = 0; i < iterations; i++) {
+            device.setVariables(out, indexes, values, indexes.length, true);
+            device.getVariables(out, indexes, indexes.length);
+        }
+
+        long before = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < iterations; i++) {
+            device.setVariables(out, indexes, values, indexes.length, true);
+            device.getVariables(out, indexes, indexes.length);
+        }
+        long allocated = mx.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+        // Anything left over comes from the measurement itself, not from per-frame garbage.
+        assertTrue(allocated < iterations, "encoder allocated " + allocated + " bytes");
+    }
+}
+
+class TestFrameDecoder {
+
+    Red device;
+    FrameDecoder decoder;
+    byte[] reply;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        device = new Red(3);
+        decoder = new FrameDecoder();
+
+        // A read reply carries index/value pairs, the same layout as a WRITE frame.
+        ByteBuffer out = ByteBuffer.allocate(Frame.MAX_SIZE);
+        int[] indexes = {Index.PresentPosition.ordinal(), Index.TorqueLimit.ordinal()};
+        double[] values = {1234.5, 700};
+        new Red(3).setVariables(out, indexes, values, 2, false);
+        reply = Frame.toArray(out);
+    }
+
+    @Test
+    void testDecodeSplitFrame() {
+        decoder.feed(reply, 0, 5);
+        assertEquals(-1, decoder.poll());
+
+        decoder.feed(reply, 5, reply.length - 5);
+        assertEquals(3, decoder.poll());
+
+        decoder.decodeInto(device);
+        decoder.consume();
+        assertEquals(1234.5f, device.getFloat(Index.PresentPosition));
+        assertEquals(700, device.getU16(Index.TorqueLimit));
+        assertEquals(0, decoder.available());
+    }
+
+    @Test
+    void testResyncAfterNoise() {
+        byte[] noise = {0x55, 0x00, 0x12, 0x55, 0x03, (byte) 0xBA, 0x0C, 0x02};
+        decoder.feed(noise, 0, noise.length);
+        decoder.feed(reply, 0, reply.length);
+
+        assertEquals(3, decoder.poll());
+        decoder.consume();
+        assertEquals(0, decoder.available());
+    }
+
+    @Test
+    void testCorruptFrameIsSkipped() {
+        byte[] corrupt = reply.clone();
+        corrupt[7] ^= 0x01;
+        decoder.feed(corrupt, 0, corrupt.length);
+        decoder.feed(reply, 0, reply.length);
+
+        assertEquals(3, decoder.poll());
+        assertEquals(1, decoder.crcErrors());
+    }
+}
+
+class TestRegisterFile {
+
+    @Test
+    void testTypedAccessors() throws Exception {
+        Red device = new Red(7);
+
+        device.set(Index.SetVelocity, -3.25f);
+        device.set(Index.MinimumPositionLimit, -40000);
+        device.set(Index.TorqueLimit, 0x1FFFF);
+        device.set(Index.OperationMode, 2);
+
+        assertEquals(7, device.getU8(Index.DeviceID));
+        assertEquals(0x55, device.getU8(Index.Header));
+        assertEquals(-3.25f, device.getFloat(Index.SetVelocity));
+        assertEquals(-40000, device.getInt(Index.MinimumPositionLimit));
+        assertEquals(0xFFFF, device.getU16(Index.TorqueLimit));
+        assertEquals(2, device.getU8(Index.OperationMode));
+        assertEquals(-3.25f, device.value(Index.SetVelocity.ordinal()));
+    }
+}
+
+class TestSyncWrite {
+
+    @Test
+    void testSyncWriteFrameLayout() throws Exception {
+        Red[] drivers = new Red[256];
+        int[] ids = {2, 5, 9};
+        for (int id : ids) {
+            drivers[id] = new Red(id);
+            drivers[id].set(Index.SetVelocity, id * 10.0f);
+        }
+        ByteBuffer out = ByteBuffer.allocate(Frame.MAX_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        int size = Red.syncWrite(out, Index.SetVelocity.ordinal(), drivers, ids, ids.length);
+
+        assertEquals(6 + 1 + 3 * (1 + 4) + 4, size);
+        assertEquals(0xFF, out.get(1) & 0xFF);
+        assertEquals(Commands.SYNC_WRITE.getValue(), out.get(4));
+        assertEquals(Index.SetVelocity.ordinal(), out.get(6));
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], out.get(7 + i * 5));
+            assertEquals(ids[i] * 10.0f, out.getFloat(8 + i * 5));
+        }
+    }
+}
+
+class TestBulkRead {
+
+    @Test
+    void testBulkReadFrameLayout() {
+        Map<Integer, Index[]> request = new LinkedHashMap<>();
+        request.put(1, new Index[]{Index.PresentPosition, Index.PresentVelocity});
+        request.put(4, new Index[]{Index.MotorCurrent});
+
+        BulkRead bulk = new BulkRead(request);
+        ByteBuffer out = bulk.frame();
+
+        assertArrayEquals(new int[]{1, 4}, bulk.ids());
+        assertEquals(6 + (2 + 2) + (2 + 1) + 4, out.limit());
+        assertEquals(0xFF, out.get(1) & 0xFF);
+        assertEquals(Commands.BULK_READ.getValue(), out.get(4));
+        assertEquals(1, out.get(6));
+        assertEquals(2, out.get(7));
+        assertEquals(Index.PresentPosition.ordinal(), out.get(8));
+        assertEquals(Index.PresentVelocity.ordinal(), out.get(9));
+        assertEquals(4, out.get(10));
+        assertEquals(1, out.get(11));
+        assertEquals(Index.MotorCurrent.ordinal(), out.get(12));
+    }
+
+    @Test
+    void testOversizedRequestIsRejected() {
+        Map<Integer, Index[]> request = new LinkedHashMap<>();
+        for (int id = 0; id < 82; id++) {
+            request.put(id, new Index[]{Index.PresentPosition});
+        }
+
+        // 81 groups of three bytes fill a frame, the 82nd does not fit
+        IndexOutOfBoundsException e = assertThrows(IndexOutOfBoundsException.class, () -> new BulkRead(request));
+        assertTrue(e.getMessage().contains("exceeds"));
+        request.remove(81);
+        assertEquals(Frame.MAX_SIZE - 2, new BulkRead(request).frame().limit());
+    }
+}
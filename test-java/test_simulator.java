@@ -0,0 +1,289 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TestRedSimulator {
+    private static final int BAUDRATE = 115200;
+
+    private RedSimulator simulator;
+    private Master master;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        LoopbackTransport[] ends = LoopbackTransport.pair();
+        simulator = new RedSimulator(ends[1], BAUDRATE).addDrivers(1, 3).start();
+        master = new Master(ends[0], BAUDRATE);
+        for (int id = 1; id <= 4; id++) {
+            master.attach(new Red(id));
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        simulator.close();
+        master.close();
+    }
+
+    @Test
+    void testPing() throws Exception {
+        assertTrue(master.ping(1));
+        assertFalse(master.ping(4));
+    }
+
+    @Test
+    void testSetAndGetRoundTrip() throws Exception {
+        master.setShaftCpr(2, 4096f);
+
+        assertEquals(4096f, master.getShaftCpr(2));
+        assertEquals(4096f, simulator.driver(2).getFloat(Index.OutputShaftCPR));
+        assertEquals(BAUDRATE, master.getDriverBaudrate(2));
+    }
+
+    @Test
+    void testWriteAck() throws Exception {
+        List<Object> echoed = master.setVariables(3, List.<Object[]>of(new Object[]{Index.TorqueLimit.ordinal(), 300}), true);
+
+        assertEquals(List.of(300), echoed);
+        assertEquals(300, simulator.driver(3).getU16(Index.TorqueLimit));
+    }
+
+    @Test
+    void testSyncWrite() throws Exception {
+        master.syncWrite(Index.SetVelocity, new int[]{1, 2, 3}, new float[]{10f, 20f, 30f});
+        assertTrue(master.ping(3));
+
+        assertEquals(10f, simulator.driver(1).getFloat(Index.SetVelocity));
+        assertEquals(20f, simulator.driver(2).getFloat(Index.SetVelocity));
+        assertEquals(30f, simulator.driver(3).getFloat(Index.SetVelocity));
+    }
+
+    @Test
+    void testBulkRead() throws Exception {
+        simulator.driver(1).set(Index.OutputShaftRPM, 100f);
+        simulator.driver(3).set(Index.TorqueLimit, 42);
+
+        assertTrue(master.bulkRead(Map.of(
+            1, new Index[]{Index.OutputShaftRPM},
+            3, new Index[]{Index.TorqueLimit, Index.Baudrate})));
+        assertEquals(100f, master.driver(1).getFloat(Index.OutputShaftRPM));
+        assertEquals(42, master.driver(3).getU16(Index.TorqueLimit));
+        assertEquals(BAUDRATE, master.driver(3).getU32(Index.Baudrate));
+    }
+
+    @Test
+    void testBulkWrite() throws Exception {
+        master.bulkWrite()
+            .set(1, Index.SetTorque, 5f)
+            .set(2, Index.VelocityLimit, 900)
+            .set(1, Index.TorqueLimit, 200)
+            .send();
+        assertTrue(master.ping(2));
+
+        assertEquals(5f, simulator.driver(1).getFloat(Index.SetTorque));
+        assertEquals(200, simulator.driver(1).getU16(Index.TorqueLimit));
+        assertEquals(900, simulator.driver(2).getU16(Index.VelocityLimit));
+    }
+
+    @Test
+    void testPositionMoves() throws Exception {
+        master.setVariables(1, List.<Object[]>of(
+            new Object[]{Index.OperationMode.ordinal(), 1},
+            new Object[]{Index.SetPosition.ordinal(), 500f},
+            new Object[]{Index.TorqueEnable.ordinal(), 1}), false);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (master.getPosition(1) != 500 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(500, master.getPosition(1));
+    }
+
+    @Test
+    void testMaxAgeReadsUseCache() throws Exception {
+        assertEquals(Red.NEVER, master.driver(1).receivedAt(Index.PresentPosition));
+
+        master.getPosition(1, Duration.ofSeconds(1));
+        master.getPosition(1, Duration.ofSeconds(1));
+        assertEquals(1, master.cacheMisses());
+        assertEquals(1, master.cacheHits());
+
+        master.getPosition(1, Duration.ZERO);
+        assertEquals(2, master.cacheMisses());
+
+        assertTrue(master.bulkRead(Map.of(2, new Index[]{Index.PresentVelocity})));
+        master.getVelocity(2, Duration.ofSeconds(1));
+        assertEquals(2, master.cacheHits());
+    }
+
+    @Test
+    void testMetricsPerCommandAndDriver() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(master.ping(1));
+        }
+        master.getShaftCpr(2);
+        assertFalse(master.ping(4));
+
+        BusMetrics metrics = master.metrics();
+        assertEquals(5, metrics.latency(Commands.PING, 1).count());
+        assertTrue(metrics.latency(Commands.PING, 1).minNanos() > 0);
+        assertEquals(1, metrics.latency(Commands.READ, 2).count());
+        assertEquals(0, metrics.latency(Commands.PING, 2).count());
+        assertEquals(1, metrics.timeouts(Commands.PING, 4));
+        assertEquals(0, metrics.crcErrors());
+
+        master.resetMetrics();
+        assertEquals(5, metrics.latency(Commands.PING, 1).count());
+        assertEquals(0, master.metrics().latency(Commands.PING, 1).count());
+    }
+
+    @Test
+    void testMetricsCountCrcErrors() throws Exception {
+        LoopbackTransport[] ends = LoopbackTransport.pair();
+        Master bare = new Master(ends[0], BAUDRATE);
+        bare.attach(new Red(9));
+        ByteBuffer reply = Frame.buffer();
+        Frame.begin(reply, 9, Commands.PING);
+        Frame.end(reply);
+        byte[] corrupt = Frame.toArray(reply);
+        corrupt[corrupt.length - 1] ^= 0x01;
+        ends[1].write(corrupt, 0, corrupt.length);
+
+        assertFalse(bare.ping(9));
+
+        BusMetrics metrics = bare.metrics();
+        assertEquals(1, metrics.crcErrors());
+        assertEquals(1, metrics.timeouts(Commands.PING, 9));
+        bare.close();
+    }
+
+    @Test
+    void testFlightRecorderTransactions() throws Exception {
+        Path file = Files.createTempFile("smd", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("smd.Transaction");
+            recording.start();
+            master.syncWrite(Index.SetVelocity, new int[]{1, 2}, new float[]{1f, 2f});
+            assertTrue(master.ping(1));
+            assertFalse(master.ping(4));
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+            .filter(event -> event.getEventType().getName().equals("smd.Transaction"))
+            .collect(Collectors.toList());
+        Files.delete(file);
+
+        assertEquals(3, events.size());
+        assertEquals("SYNC_WRITE", events.get(0).getString("command"));
+        assertEquals("sent", events.get(0).getString("result"));
+        assertEquals(255, events.get(0).getInt("driverId"));
+        assertEquals("ok", events.get(1).getString("result"));
+        assertEquals(10, events.get(1).getInt("bytesWritten"));
+        assertEquals(10, events.get(1).getInt("bytesRead"));
+        assertEquals("timeout", events.get(2).getString("result"));
+        assertEquals(4, events.get(2).getInt("driverId"));
+    }
+
+    @Test
+    void testFlightRecorderEventsAreOffByDefault() throws Exception {
+        Path file = Files.createTempFile("smd", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.start();
+            assertTrue(master.ping(1));
+            recording.stop();
+            recording.dump(file);
+        }
+
+        assertTrue(RecordingFile.readAllEvents(file).stream()
+            .noneMatch(event -> event.getEventType().getName().startsWith("smd.")));
+        Files.delete(file);
+    }
+
+    @Test
+    void testRoundTripAtLineRate() throws Exception {
+        LoopbackTransport[] ends = LoopbackTransport.pair(BAUDRATE);
+        ends[1].setTurnaround(200_000);
+        try (RedSimulator bus = new RedSimulator(ends[1], BAUDRATE).addDriver(7).start()) {
+            Master timed = new Master(ends[0], BAUDRATE);
+            timed.attach(new Red(7));
+
+            long start = System.nanoTime();
+            assertTrue(timed.ping(7));
+            long elapsed = System.nanoTime() - start;
+
+            // a 10 byte ping and its 10 byte reply, plus the turnaround
+            assertTrue(elapsed >= 20 * ends[0].byteNanos() + 200_000);
+            timed.close();
+        }
+    }
+
+    @Test
+    void testBusStatsSplitWireTime() throws Exception {
+        LoopbackTransport[] ends = LoopbackTransport.pair(BAUDRATE);
+        ends[1].setTurnaround(200_000);
+        try (RedSimulator bus = new RedSimulator(ends[1], BAUDRATE).addDriver(7).start()) {
+            Master timed = new Master(ends[0], BAUDRATE);
+            timed.attach(new Red(7));
+            for (int i = 0; i < 10; i++) {
+                assertTrue(timed.ping(7));
+            }
+
+            BusStats pings = timed.busStats();
+            assertEquals(20, pings.frames());
+            assertEquals(0, pings.payloadBytes());
+            assertEquals(200, pings.overheadBytes());
+            assertTrue(pings.utilisationPercent() > 0, pings.toString());
+            assertTrue(pings.turnaroundPercent() > 0, pings.toString());
+            assertTrue(pings.framesPerSecond() > 0);
+
+            timed.resetMetrics();
+            timed.getShaftCpr(7);
+
+            // a READ of one index and its reply, each header, index and CRC around the value
+            BusStats read = timed.busStats();
+            assertEquals(2, read.frames());
+            assertEquals(Registers.size(Index.OutputShaftCPR.ordinal()), read.payloadBytes());
+            assertEquals(22, read.overheadBytes());
+            timed.close();
+        }
+    }
+
+    @Test
+    void testBusStatsCountSyncWriteIdsAsOverhead() throws Exception {
+        master.syncWrite(Index.SetPosition, new int[]{1, 2, 3});
+
+        BusStats stats = master.busStats();
+        assertEquals(1, stats.frames());
+        assertEquals(3 * Registers.size(Index.SetPosition.ordinal()), stats.payloadBytes());
+        assertEquals(Frame.HEADER_SIZE + 1 + 3 + Frame.CRC_SIZE, stats.overheadBytes());
+    }
+
+    @Test
+    void testAsyncMasterOverSimulator() throws Exception {
+        LoopbackTransport[] ends = LoopbackTransport.pair();
+        try (RedSimulator bus = new RedSimulator(ends[1], BAUDRATE).addDrivers(1, 200).start();
+             AsyncMaster async = new AsyncMaster(ends[0], BAUDRATE)) {
+            async.attach(new Red(200)).get();
+
+            assertTrue(async.ping(200).get(1, TimeUnit.SECONDS));
+            assertEquals(0, async.getPosition(200).get(1, TimeUnit.SECONDS));
+            assertTrue(bus.replies() >= 2);
+        }
+    }
+}
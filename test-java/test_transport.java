@@ -0,0 +1,101 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class TestLoopbackTransport {
+
+    @Test
+    void testBytesCrossToPeer() throws Exception {
+        LoopbackTransport[] ends = LoopbackTransport.pair();
+        byte[] data = {0x55, 0x01, (byte) 0xBA};
+        byte[] buffer = new byte[8];
+
+        assertEquals(0, ends[0].read(buffer, 0, buffer.length));
+        ends[0].write(data, 0, data.length);
+
+        assertTrue(ends[1].awaitData(System.nanoTime() + 1_000_000));
+        assertEquals(3, ends[1].read(buffer, 0, buffer.length));
+        assertEquals((byte) 0xBA, buffer[2]);
+        assertEquals(0, ends[0].available());
+    }
+
+    @Test
+    void testAwaitDataTimesOut() throws Exception {
+        LoopbackTransport[] ends = LoopbackTransport.pair();
+
+        long start = System.nanoTime();
+        assertFalse(ends[0].awaitData(start + 2_000_000));
+        assertTrue(System.nanoTime() - start >= 2_000_000);
+    }
+
+    @Test
+    void testBytesTakeWireTime() throws Exception {
+        LoopbackTransport[] ends = LoopbackTransport.pair(115200);
+        byte[] data = new byte[10];
+        byte[] buffer = new byte[10];
+
+        long start = System.nanoTime();
+        ends[0].write(data, 0, data.length);
+        assertTrue(ends[1].available() < data.length);
+
+        int n = 0;
+        while (n < data.length && ends[1].awaitData(start + 1_000_000_000L)) {
+            n += ends[1].read(buffer, n, buffer.length - n);
+        }
+        assertEquals(data.length, n);
+        assertTrue(System.nanoTime() - start >= data.length * ends[0].byteNanos());
+    }
+
+    @Test
+    void testTurnaroundDelaysReply() throws Exception {
+        LoopbackTransport[] ends = LoopbackTransport.pair(1_000_000);
+        ends[1].setTurnaround(3_000_000);
+        byte[] data = {0x55};
+
+        long start = System.nanoTime();
+        ends[1].write(data, 0, data.length);
+
+        assertTrue(ends[0].awaitData(start + 1_000_000_000L));
+        assertTrue(System.nanoTime() - start >= 3_000_000 + ends[0].byteNanos());
+    }
+
+    @Test
+    void testBitErrorsAreInjected() throws Exception {
+        LoopbackTransport[] ends = LoopbackTransport.pair();
+        ends[0].setBitErrorRate(1.0, 42);
+        byte[] data = {0x55, 0x55, 0x55, 0x55};
+        byte[] buffer = new byte[4];
+
+        ends[0].write(data, 0, data.length);
+
+        assertEquals(4, ends[1].read(buffer, 0, buffer.length));
+        assertEquals(4, ends[1].injectedErrors());
+        for (byte b : buffer) {
+            assertEquals(1, Integer.bitCount((b ^ 0x55) & 0xFF));
+        }
+    }
+}
+
+class TestSocketTransport {
+
+    @Test
+    void testBytesCrossToPeer() throws Exception {
+        SocketTransport[] ends = SocketTransport.pair();
+        try {
+            byte[] data = {0x55, 0x02, (byte) 0xBA, 0x0A};
+            byte[] buffer = new byte[8];
+
+            ends[1].write(data, 0, data.length);
+
+            assertTrue(ends[0].awaitData(System.nanoTime() + 1_000_000_000L));
+            int n = 0;
+            while (n < data.length) {
+                n += ends[0].read(buffer, n, buffer.length - n);
+            }
+            assertEquals(0x0A, buffer[3]);
+        } finally {
+            ends[0].close();
+            ends[1].close();
+        }
+    }
+}